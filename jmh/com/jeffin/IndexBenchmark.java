@@ -0,0 +1,184 @@
+package com.jeffin;
+
+import com.jeffin.storage.WriteAheadLog;
+import com.jeffin.util.DataGenerator;
+import com.jeffin.util.DataGenerator.Distribution;
+import com.jeffin.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: JMH benchmarks of the hot paths of the index on generated data: finding a record, listing records and inserting a record.
+ *        a txt file of keyCount records is generated with DataGenerator once per trial and the index is created from it,
+ *        every thread then draws its keys with its own generator of the chosen distribution.
+ *        sample time mode reports the latency percentiles next to the average, run with -t to measure several threads,
+ *        e.g. gradle jmh -Pjmh="IndexBenchmark -p keyCount=10000,1000000 -p distribution=ZIPFIAN -t 8"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBenchmark {
+    public static final int LIST_LENGTH = 100;   // records of every list
+    public static final int VALUE_SIZE = 32;     // length of every generated value
+    public static final int INSERT_SUFFIX_SIZE = 16; // longest suffix making an inserted key unique, the index allows keys this much longer
+    static final long SEED = 42;
+
+    @Param({"10000", "1000000"})
+    public long keyCount;
+
+    @Param({"UNIFORM"})
+    public Distribution distribution;
+
+    @Param({"4096"})
+    public int pageSize;
+
+    private int keySize;
+    private String txtFile;
+    private String indexFile;
+    private IndexOperation operation;
+
+    /**
+     * draws the keys of one thread, threads start at different seeds so sequential ranks of different threads don't overlap
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private DataGenerator generator;
+        private String thread;  // thread index in base 36, part of the keys this thread inserts
+        private long inserted;  // keys inserted by this thread so far
+
+        @Setup(Level.Trial)
+        public void setUp(IndexBenchmark benchmark, ThreadParams thread) {
+            long seed = SEED + thread.getThreadIndex() * (benchmark.keyCount / thread.getThreadCount());
+            generator = new DataGenerator(benchmark.distribution, benchmark.keyCount, seed);
+            this.thread = Integer.toString(thread.getThreadIndex(), 36);
+        }
+
+        /**
+         * @param keySize length of the generated keys
+         * @return key no thread has inserted yet. it starts with the absent key of a drawn rank, so it sorts between
+         *         the generated keys of that rank and the next one and inserts follow the distribution however long the run is
+         */
+        String nextInsertKey(int keySize) {
+            return DataGenerator.absentKey(generator.nextRank(), keySize) + "-" + thread + "-" + Long.toString(inserted++, 36);
+        }
+    }
+
+    /**
+     * @param keyCount number of generated keys
+     * @return key size holding the keys of a file of that many records and the absent keys between them
+     */
+    static int keySize(long keyCount) {
+        return Math.max(15, Long.toString(2 * keyCount).length());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keySize = keySize(keyCount);
+        txtFile = "bench-" + keyCount + ".txt";
+        indexFile = "bench-" + keyCount + ".idx";
+        DataGenerator.writeDataFile(txtFile, keyCount, keySize, VALUE_SIZE, distribution, SEED);
+        try (IndexOperation builder = new IndexOperation(keySize + INSERT_SUFFIX_SIZE)) {
+            builder.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, pageSize);
+        }
+
+        operation = new IndexOperation(keySize + INSERT_SUFFIX_SIZE);
+        operation.open(indexFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        operation.close();
+        deleteFiles(txtFile, indexFile);
+    }
+
+    /**
+     * delete a generated txt file, its index file and the log of the index file
+     */
+    static void deleteFiles(String txtFile, String indexFile) {
+        String dir = System.getProperty("user.dir") + "/";
+        FileUtil.deleteFile(dir + txtFile);
+        FileUtil.deleteFile(dir + indexFile);
+        FileUtil.deleteFile(dir + indexFile + WriteAheadLog.SUFFIX);
+    }
+
+    @Benchmark
+    public String find(Keys keys) {
+        return operation.findRecordByKey(DataGenerator.key(keys.generator.nextRank(), keySize), indexFile, txtFile);
+    }
+
+    @Benchmark
+    public String list(Keys keys) {
+        return operation.listSequentialRecords(DataGenerator.key(keys.generator.nextRank(), keySize), LIST_LENGTH, txtFile, indexFile);
+    }
+
+    /**
+     * insert a new key between two generated ones, every call inserts a key, none is rejected as a duplicate
+     */
+    @Benchmark
+    public String insert(Keys keys) {
+        return operation.insertNewRecord(keys.nextInsertKey(keySize), "inserted", txtFile, indexFile);
+    }
+
+    /**
+     * create the index of a generated txt file, a single shot per iteration since the file is replaced every time
+     */
+    @State(Scope.Benchmark)
+    public static class Create {
+        @Param({"10000", "1000000"})
+        public long keyCount;
+
+        @Param({"UNIFORM"})
+        public Distribution distribution;
+
+        @Param({"4096"})
+        public int pageSize;
+
+        private int keySize;
+        private String txtFile;
+        private String indexFile;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            keySize = keySize(keyCount);
+            txtFile = "bench-create-" + keyCount + ".txt";
+            indexFile = "bench-create-" + keyCount + ".idx";
+            DataGenerator.writeDataFile(txtFile, keyCount, keySize, VALUE_SIZE, distribution, SEED);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            deleteFiles(txtFile, indexFile);
+        }
+
+        @Benchmark
+        @BenchmarkMode(Mode.SingleShotTime)
+        @OutputTimeUnit(TimeUnit.MILLISECONDS)
+        @Warmup(iterations = 1)
+        @Measurement(iterations = 5)
+        public void create() {
+            try (IndexOperation builder = new IndexOperation(keySize)) {
+                builder.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, pageSize);
+                builder.flush();
+            }
+        }
+    }
+}
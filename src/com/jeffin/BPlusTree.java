@@ -1,10 +1,18 @@
 package com.jeffin;
 
-import com.jeffin.util.DataTypeConvertUtil;
-import com.jeffin.util.FileUtil;
+import com.jeffin.metrics.IndexMetrics;
+import com.jeffin.storage.BufferPool;
+import com.jeffin.storage.EvictionPolicy;
+import com.jeffin.storage.IndexFile;
+import com.jeffin.storage.WriteAheadLog;
+import com.jeffin.util.KeyComparator;
+import com.jeffin.util.KeyUtil;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Author: baojianfeng
@@ -12,423 +20,1570 @@ import java.util.*;
  * Usage: A b+ tree has insert, find, traverseLeafNode functions
  */
 public class BPlusTree {
-    private Node root;
-    private int m;          // m is the maximum tree pointer size
-    private int l;          // l is the maximum leaf node key/value pair size
-    private int keySize;
+    public static final long DEFAULT_CACHE_CAPACITY = 4L * 1024 * 1024; // 4MB, 1024 blocks of the default page size
+    private static final ByteBuffer EMPTY_BLOCK = ByteBuffer.allocate(IndexFile.MAX_PAGE_SIZE);
+    private static final byte[] EMPTY_KEY = new byte[0]; // sorts before every key
+
+    private int maxKeySize;   // longest key which can be inserted, keys are stored at their own length
+    private int maxEntrySize; // most bytes one more key and pointer can add to a node
+    private int minFillBytes; // a node using fewer bytes after a delete is merged with a sibling or takes entries from it
+    private int pageSize;
+    private IndexFile indexFile;
+    private BufferPool bufferPool;
+    private BufferPool.PageLoader pageLoader; // reads a missing block from indexFile
+    private BufferPool.PageWriter pageWriter; // writes a dirty block back into indexFile
+    private volatile int dirtyPageThreshold;  // dirty blocks are flushed once there are this many of them
+    private WriteAheadLog writeAheadLog; // null if blocks are written in place without logging
+    private volatile boolean recovering;  // a log is being replayed, dirty blocks stay in memory until it is checkpointed as a whole
+    private volatile IndexMetrics metrics = new IndexMetrics(); // counts block I/O, splits and merges
+    private final ThreadLocal<ByteBuffer> nodeBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(pageSize)); // reused by every node write of a thread
+    private final ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock(); // exclusive while the root may be replaced
+    private final ReentrantReadWriteLock checkpointLatch = new ReentrantReadWriteLock(); // shared by operations, exclusive while flushing
+    private final Object freeListLock = new Object(); // held while a block is taken from or put on the free list
+
+    /**
+     * B+ tree constructor, blocks are cached in a default LRU buffer pool
+     * @param indexFile open index file the tree is stored in
+     * @param maxKeySize longest key which can be inserted, at most maxKeySize(page size)
+     */
+    public BPlusTree(IndexFile indexFile, int maxKeySize) {
+        this(indexFile, maxKeySize, new BufferPool(DEFAULT_CACHE_CAPACITY, indexFile.getPageSize(), EvictionPolicy.LRU));
+    }
 
     /**
      * B+ tree constructor
-     * @param m maximum number of child nodes allowed in tree node
-     * @param l maximum number of key-value pair allowed in leaf node
-     * @param keySize key size
+     * @param indexFile open index file the tree is stored in
+     * @param maxKeySize longest key which can be inserted, at most maxKeySize(page size)
+     * @param bufferPool buffer pool caching the blocks of the index file, pages cached for another file are dropped.
+     *                   its page size must be the page size of the index file
      */
-    public BPlusTree(int m, int l, int keySize) {
-        this.m = m;
-        this.l = l;
-        this.keySize = keySize;
+    public BPlusTree(IndexFile indexFile, int maxKeySize, BufferPool bufferPool) {
+        if (bufferPool.getPageSize() != indexFile.getPageSize())
+            throw new IllegalArgumentException("buffer pool page size " + bufferPool.getPageSize() + " differs from page size " + indexFile.getPageSize() + " of " + indexFile.getFileName());
+        this.indexFile = indexFile;
+        this.pageSize = indexFile.getPageSize();
+        this.maxKeySize = maxKeySize;
+        this.maxEntrySize = maxKeySize + NodeView.KEY_OVERHEAD + 8;
+        this.minFillBytes = pageSize / 4;
+        this.bufferPool = bufferPool;
+        this.pageLoader = (pageAddr, page) -> {
+            indexFile.readBlock(pageAddr, page);
+            metrics.blockRead();
+        };
+        this.pageWriter = (pageAddr, page) -> {
+            indexFile.write(page, pageAddr);
+            metrics.blockWritten();
+        };
+        this.dirtyPageThreshold = Math.max(1, bufferPool.getMaxPages() / 2); // leave half of the pool for clean blocks
+        bufferPool.clear();
     }
 
     /**
-     * insert a key/value pair, if the key already exists, don't insert the they
-     * @param key key
+     * longest key an index with this page size can hold, an internal node must fit 3 such keys and 4 pointers,
+     * so splitting a node always leaves keys on both sides
+     * @param pageSize page size
+     * @return longest key in bytes
+     */
+    public static int maxKeySize(int pageSize) {
+        return Math.min(0xFFFF, (pageSize - NodeView.HEADER_SIZE - 4 * 8) / 3 - NodeView.KEY_OVERHEAD);
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @param dirtyPageThreshold how many modified blocks are kept in memory before they are flushed
+     */
+    public void setDirtyPageThreshold(int dirtyPageThreshold) {
+        if (dirtyPageThreshold <= 0)
+            throw new IllegalArgumentException("dirty page threshold must be positive: " + dirtyPageThreshold);
+        this.dirtyPageThreshold = dirtyPageThreshold;
+    }
+
+    /**
+     * @param metrics counters the block reads and writes, splits and merges of this tree are added to
+     */
+    public void setMetrics(IndexMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * log a checkpoint into a write-ahead log before any block is written in place
+     * @param writeAheadLog write-ahead log of the index file
+     */
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * replaying a log must not checkpoint half of it: a checkpoint empties the log, while the rest of the replayed changes
+     * are only in memory. while recovering no flush is started when enough blocks are dirty, the caller flushes once at the end
+     * @param recovering true while a log is replayed into the tree
+     */
+    public void setRecovering(boolean recovering) {
+        this.recovering = recovering;
+    }
+
+    /**
+     * write every modified block back into the index file in address order, then the header.
+     * with a write-ahead log this is a checkpoint: the txt files changed since the last one are synced,
+     * block images and the header are logged and synced,
+     * so a crash while blocks are written in place is repaired by replaying the images,
+     * then the index file is synced and the log is emptied.
+     * waits until running operations end, must not be called inside an operation
+     */
+    public void flush() {
+        if (indexFile.isMemoryMapped())
+            return;
+        if (checkpointLatch.getReadHoldCount() > 0)
+            throw new IllegalStateException("flush can't be called inside an operation");
+
+        checkpointLatch.writeLock().lock();
+        try {
+            if (writeAheadLog == null) {
+                writeBack();
+                return;
+            }
+            if (bufferPool.getDirtyCount() == 0 && !indexFile.isHeaderDirty())
+                return;
+
+            bufferPool.forEachDirty(writeAheadLog::logPage);
+            writeAheadLog.logCheckpointEnd(indexFile.getRootAddr(), indexFile.getCurrentSpaceOffset(), indexFile.getFreeListHead());
+            writeBack();
+            indexFile.force();
+            writeAheadLog.truncate();
+        } finally {
+            checkpointLatch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * write modified blocks and the header in place
+     */
+    private void writeBack() {
+        bufferPool.flush(pageWriter);
+        indexFile.flush();
+    }
+
+    /**
+     * flush once enough blocks are dirty, only called between operations so a flush never sees half a split.
+     * nothing is flushed while recovering
+     */
+    private void flushIfNeeded() {
+        if (!recovering && bufferPool.getDirtyCount() >= dirtyPageThreshold)
+            flush();
+    }
+
+    /**
+     * insert a key/value pair, if the key already exists, don't insert the they.
+     * safe to call from several threads: the leaf is first changed under an exclusive latch on the leaf alone,
+     * only if the leaf is full the insert starts again and latches exclusively the part of the path a split can reach
+     * @param key key, 1 to maxKeySize bytes
      * @param value value
      * @return true if insert success, false if the key already exists
      */
-    public boolean insert(String key, long value, String indexFile) {
-        if (root == null) {
-            if (FileUtil.isFileExisted(System.getProperty("user.dir") + "/" + indexFile))
-                setRoot(indexFile);
+    public boolean insert(byte[] key, long value) {
+        if (indexFile.isMemoryMapped())
+            throw new IllegalStateException("index file " + indexFile.getFileName() + " is opened read-only");
+        checkKey(key);
+
+        beginOperation();
+        try {
+            Boolean inserted = insertOptimistic(key, value);
+            return inserted != null ? inserted : insertPessimistic(key, value);
+        } finally {
+            endOperation();
         }
+    }
 
-        // there are no elements in root, means it just begins inserting
-        if (root.keys.size() == 0) {
-            root = new LeafNode();
-            root.setStartPos(1024); // when inserting the first key-value pair into index file, root start position is the next block after header block
+    /**
+     * insert a batch of key/value pairs. the batch is sorted, the tree is descended once per leaf and every key
+     * which belongs to that leaf is inserted while the leaf has room. a key arriving at a full leaf is inserted
+     * on its own with a split, the keys after it then go into the half-empty leaves the split left behind
+     * @param keys keys, 1 to maxKeySize bytes each
+     * @param values values, in the order of keys
+     * @return result of every key in the order of keys, the first of several equal keys in the batch is inserted
+     */
+    public List<InsertResult> insertAll(List<byte[]> keys, List<Long> values) {
+        if (indexFile.isMemoryMapped())
+            throw new IllegalStateException("index file " + indexFile.getFileName() + " is opened read-only");
+        if (keys.size() != values.size())
+            throw new IllegalArgumentException("keys and values differ in size: " + keys.size() + ", " + values.size());
+        for (byte[] key : keys)
+            checkKey(key);
+
+        int n = keys.size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> KeyComparator.compare(keys.get(a), keys.get(b))); // stable, equal keys keep batch order
+
+        InsertResult[] results = new InsertResult[n];
+        NodeView view = new NodeView();
+        byte[][] upperBound = new byte[1][];
+        int i = 0;
+        while (i < n) {
+            beginOperation();
+            try {
+                int next = insertIntoLeaf(keys, values, order, i, results, view, upperBound);
+                if (next == i) {
+                    // the leaf is full, split it with this key
+                    int index = order[i];
+                    results[index] = insertPessimistic(keys.get(index), values.get(index)) ? InsertResult.INSERTED : InsertResult.DUPLICATE;
+                    next++;
+                }
+                i = next;
+            } finally {
+                endOperation();
+            }
         }
 
-        // update root every time inserting new element
-        if (root.keys.size() < FileUtil.getRootKeysSize(indexFile, FileUtil.getRootAddr(indexFile)))
-            setRoot(indexFile);
-        LeafNode lf = (LeafNode) findLeaf(root, key, indexFile);
-        boolean insertSuc = lf.insert(key, value);
-        if (!insertSuc)
+        return Arrays.asList(results);
+    }
+
+    /**
+     * delete a key and its value. safe to call from several threads like insert: the key is first removed under
+     * an exclusive latch on the leaf alone, only if the leaf then falls below a quarter of a block the delete starts again
+     * and latches exclusively the part of the path a merge can reach. blocks of merged nodes go onto the free list
+     * and are reused by later splits
+     * @param key key
+     * @return true if the key was deleted, false if it doesn't exist
+     */
+    public boolean delete(byte[] key) {
+        if (indexFile.isMemoryMapped())
+            throw new IllegalStateException("index file " + indexFile.getFileName() + " is opened read-only");
+        if (indexFile.getRootAddr() == 0L)
             return false;
 
-        if (lf.getKeysSize() > l) {
-            splitAndRebalance(lf, indexFile);
-        } else {
-            writeNodeIntoIndexFile(lf, indexFile);
+        beginOperation();
+        try {
+            Boolean deleted = deleteOptimistic(key);
+            return deleted != null ? deleted : deletePessimistic(key);
+        } finally {
+            endOperation();
         }
+    }
 
-        return true;
+    /**
+     * descend once and insert the following keys of a sorted batch which belong to the leaf, while it has room
+     * @param order batch indices sorted by key
+     * @param from first position in order to insert
+     * @param results receives the result of every key handled
+     * @return position in order of the first key not handled, from if the leaf is full
+     */
+    private int insertIntoLeaf(List<byte[]> keys, List<Long> values, Integer[] order, int from,
+                               InsertResult[] results, NodeView view, byte[][] upperBound) {
+        upperBound[0] = null;
+        BufferPool.Page leaf = latchLeafExclusive(keys.get(order[from]), view, upperBound);
+        try {
+            LeafNode lf = leafOf(view);
+            int i = from;
+            boolean changed = false;
+            while (i < keys.size()) {
+                byte[] key = keys.get(order[i]);
+                if (upperBound[0] != null && KeyComparator.compare(key, upperBound[0]) > 0)
+                    break; // belongs to a leaf on the right
+                int pos = KeyComparator.binarySearch(lf.keys, key);
+                if (pos >= 0) {
+                    results[order[i]] = InsertResult.DUPLICATE;
+                } else {
+                    lf.keys.add(-pos - 1, key);
+                    lf.values.add(-pos - 1, values.get(order[i]));
+                    if (!fits(lf)) {
+                        lf.keys.remove(-pos - 1);
+                        lf.values.remove(-pos - 1);
+                        break;
+                    }
+                    results[order[i]] = InsertResult.INSERTED;
+                    changed = true;
+                }
+                i++;
+            }
+            if (changed)
+                writeNodeIntoIndexFile(lf);
+            return i;
+        } finally {
+            release(leaf, true);
+        }
+    }
+
+    /**
+     * start an operation which must not be split by a flush, e.g. logging an insert and applying it.
+     * operations may nest and run in parallel, flush waits until none is running
+     */
+    public void beginOperation() {
+        checkpointLatch.readLock().lock();
+    }
+
+    /**
+     * end an operation started with beginOperation, the outermost one flushes if enough blocks are dirty
+     */
+    public void endOperation() {
+        checkpointLatch.readLock().unlock();
+        if (checkpointLatch.getReadHoldCount() == 0)
+            flushIfNeeded();
+    }
+
+    /**
+     * descend with shared latches, only the leaf is latched exclusively
+     * @param key key
+     * @param value value
+     * @return true if inserted, false if the key already exists, null if the leaf is full and has to be split
+     */
+    private Boolean insertOptimistic(byte[] key, long value) {
+        NodeView view = new NodeView();
+        BufferPool.Page leaf = latchLeafExclusive(key, view, null);
+        try {
+            LeafNode lf = leafOf(view);
+            if (!lf.insert(key, value))
+                return false;
+            if (!fits(lf))
+                return null;
+            writeNodeIntoIndexFile(lf);
+            return true;
+        } finally {
+            release(leaf, true);
+        }
+    }
+
+    /**
+     * crab down to the leaf which may hold the key with shared latches, then latch the leaf exclusively.
+     * the leaf is relatched while its parent, or the root latch, is still held shared, so no split can move its keys meanwhile
+     * @param key key
+     * @param view view which is left pointing at the leaf
+     * @param upperBound if not null, upperBound[0] receives the separator bounding the leaf from above, null if it is the last leaf
+     * @return pinned page of the leaf latched exclusively, must be released with release(page, true)
+     */
+    private BufferPool.Page latchLeafExclusive(byte[] key, NodeView view, byte[][] upperBound) {
+        BufferPool.Page parent = null;
+        BufferPool.Page page = null;
+        boolean rootLatched = true;
+        rootLatch.readLock().lock();
+        try {
+            page = latch(rootAddress(), view, false);
+            while (!isLeafOrEmpty(view)) {
+                int index = view.childIndex(key);
+                long child = view.pointerAt(index);
+                if (upperBound != null && index < view.keyCount())
+                    upperBound[0] = view.keyAt(index); // a separator lower down is always tighter
+                // only the node above the child has to stay latched
+                if (parent != null)
+                    release(parent, false);
+                else if (rootLatched) {
+                    rootLatch.readLock().unlock();
+                    rootLatched = false;
+                }
+                parent = page;
+                page = null;
+                page = latch(child, view, false);
+            }
+
+            BufferPool.Page leaf = page;
+            page = null;
+            leaf.getLatch().readLock().unlock();
+            leaf.getLatch().writeLock().lock();
+            return leaf;
+        } finally {
+            release(page, false);
+            release(parent, false);
+            if (rootLatched)
+                rootLatch.readLock().unlock();
+        }
+    }
+
+    /**
+     * descend with exclusive latches, the latches above a node which has room for one more entry are released
+     * since a split below it stops there. the root latch is kept if the root itself may split
+     * @param key key
+     * @param value value
+     * @return true if inserted, false if the key already exists
+     */
+    private boolean insertPessimistic(byte[] key, long value) {
+        NodeView view = new NodeView();
+        List<BufferPool.Page> path = new ArrayList<>(); // exclusively latched pages, from the highest one a split can reach down to the leaf
+        boolean rootLatched = true;
+        rootLatch.writeLock().lock();
+        try {
+            long pointer = rootAddress();
+            while (true) {
+                BufferPool.Page page = latch(pointer, view, true);
+                boolean leaf = isLeafOrEmpty(view);
+                if (hasRoomForEntry(view)) {
+                    releaseAll(path);
+                    if (rootLatched) {
+                        rootLatch.writeLock().unlock();
+                        rootLatched = false;
+                    }
+                }
+                path.add(page);
+                if (leaf)
+                    break;
+                pointer = view.pointerAt(view.childIndex(key));
+            }
+
+            LeafNode lf = leafOf(view);
+            if (!lf.insert(key, value))
+                return false;
+            if (!fits(lf))
+                splitAndRebalance(lf, path);
+            else
+                writeNodeIntoIndexFile(lf);
+            return true;
+        } finally {
+            releaseAll(path);
+            if (rootLatched)
+                rootLatch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * descend with shared latches, only the leaf is latched exclusively
+     * @param key key
+     * @return true if deleted, false if the key doesn't exist, null if the leaf underflows and has to be rebalanced
+     */
+    private Boolean deleteOptimistic(byte[] key) {
+        NodeView view = new NodeView();
+        BufferPool.Page leaf = latchLeafExclusive(key, view, null);
+        try {
+            int pos = view.keyCount() == 0 ? -1 : view.search(key);
+            if (pos < 0)
+                return false;
+            LeafNode lf = leafOf(view);
+            lf.keys.remove(pos);
+            lf.values.remove(pos);
+            if (underflows(lf))
+                return null;
+            writeNodeIntoIndexFile(lf);
+            return true;
+        } finally {
+            release(leaf, true);
+        }
+    }
+
+    /**
+     * descend with exclusive latches, the latches above a node which can lose an entry without underflowing are released
+     * since a merge below it stops there. the root latch is kept if the root itself may be replaced
+     * @param key key
+     * @return true if deleted, false if the key doesn't exist
+     */
+    private boolean deletePessimistic(byte[] key) {
+        NodeView view = new NodeView();
+        List<BufferPool.Page> path = new ArrayList<>(); // exclusively latched pages, from the highest one a merge can reach down to the leaf
+        boolean rootLatched = true;
+        rootLatch.writeLock().lock();
+        try {
+            long pointer = rootAddress();
+            while (true) {
+                BufferPool.Page page = latch(pointer, view, true);
+                boolean leaf = isLeafOrEmpty(view);
+                if (canLoseEntry(view)) {
+                    releaseAll(path);
+                    if (rootLatched) {
+                        rootLatch.writeLock().unlock();
+                        rootLatched = false;
+                    }
+                }
+                path.add(page);
+                if (leaf)
+                    break;
+                pointer = view.pointerAt(view.childIndex(key));
+            }
+
+            int pos = view.keyCount() == 0 ? -1 : view.search(key);
+            if (pos < 0)
+                return false;
+            LeafNode lf = leafOf(view);
+            lf.keys.remove(pos);
+            lf.values.remove(pos);
+            rebalance(lf, path);
+            return true;
+        } finally {
+            releaseAll(path);
+            if (rootLatched)
+                rootLatch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param view view of a leaf, or of the empty root block
+     * @return leaf node which can be modified
+     */
+    private LeafNode leafOf(NodeView view) {
+        if (view.isLeaf())
+            return (LeafNode) decodeNode(view);
+
+        // there are no elements in root, means it just begins inserting
+        LeafNode lf = new LeafNode();
+        lf.setStartPos(view.getStartPos()); // when inserting the first key-value pair into index file, root start position is the next block after header block
+        return lf;
+    }
+
+    /**
+     * an internal node always has a pointer, even one left without separators, only the empty root block has none
+     */
+    private static boolean isLeafOrEmpty(NodeView view) {
+        return view.isLeaf() || view.valueCount() == 0;
     }
 
     /**
-     * split and rebalance the b+ tree
      * @param node node
-     * @param indexFile index file
+     * @return whether the node fits into one block
      */
-    private void splitAndRebalance(Node node, String indexFile) {
-        if (node.isLeafNode) {
-            LeafNode lf = (LeafNode) node;
-            List<String> leftKeys = lf.keys.subList(0, lf.keys.size() / 2);
-            List<String> rightKeys = lf.keys.subList(lf.keys.size() / 2, lf.keys.size());
-            List<Long> leftValues = lf.values.subList(0, lf.values.size() / 2);
-            List<Long> rightValues = lf.values.subList(lf.values.size() / 2, lf.values.size());
+    private boolean fits(Node node) {
+        return NodeView.encodedSize(node.keys, node.getValueSize()) <= pageSize;
+    }
 
-            long curSpaceOffset = FileUtil.getCurrentSpaceOffset(indexFile);
-            if (lf.nextLeaf == null)
-                lf.nextLeaf = 0L;
-            LeafNode lfRight = new LeafNode(rightKeys, rightValues, lf.nextLeaf);
-            lfRight.setStartPos(curSpaceOffset);
-            curSpaceOffset += 1024; // be ready for allocating the next block
-            LeafNode lfLeft = new LeafNode(leftKeys, leftValues, lfRight.getStartPos());
-            lfLeft.setStartPos(lf.getStartPos());
-
-            String key = lf.keys.get(lf.keys.size() / 2);
-            if (lf.getParentNodeAddr() == 0L) { // TODO need to test whether it's 0L or null
-                InternalNode in = new InternalNode(key, lfLeft.getStartPos(), lfRight.getStartPos());
-                in.setStartPos(curSpaceOffset);
-                curSpaceOffset += 1024;
-                root = in;
-                lfLeft.setParentNodeAddr(root.getStartPos());
-                lfRight.setParentNodeAddr(root.getStartPos());
-
-                // write two leaf node and root node into index file
-                writeNodeIntoIndexFile(lfLeft, indexFile);
-                writeNodeIntoIndexFile(lfRight, indexFile);
-                writeNodeIntoIndexFile(root, indexFile);
-
-                // update root start position and current space offset
-                FileUtil.writeDataIntoFile(indexFile, DataTypeConvertUtil.longToBytes(root.getStartPos()), 264);
-                FileUtil.writeDataIntoFile(indexFile, DataTypeConvertUtil.longToBytes(curSpaceOffset), 272);
+    /**
+     * whether a node surely doesn't split when one more key and pointer are added. a new key may shorten the prefix,
+     * then every key of the node grows by at most the old prefix length
+     * @param view view of a node
+     * @return true if the node still fits into one block after any insert
+     */
+    private boolean hasRoomForEntry(NodeView view) {
+        return view.usedBytes() + view.prefixLength() * view.keyCount() + maxEntrySize <= pageSize;
+    }
 
-            } else {
-                InternalNode in = (InternalNode) retrieveNodeFromDisk(indexFile, lf.getParentNodeAddr());
-                in.insert(key, lfLeft.getStartPos(), lfRight.getStartPos()); // insert the key from child node into parent node, also add left child and right child pointers
+    /**
+     * @param node node which lost an entry
+     * @return whether the node uses too few bytes of its block and has to be merged or refilled
+     */
+    private boolean underflows(Node node) {
+        return NodeView.encodedSize(node.keys, node.getValueSize()) < minFillBytes;
+    }
+
+    /**
+     * whether a node surely doesn't underflow when it loses one key and pointer. losing a key may lengthen the prefix,
+     * then every other key shrinks, so only the bytes every entry takes whatever its key are counted
+     * @param view view of a node
+     * @return true if the node stays at or above the underflow threshold after any delete
+     */
+    private boolean canLoseEntry(NodeView view) {
+        return NodeView.HEADER_SIZE + (view.valueCount() - 1) * 8 + (view.keyCount() - 1) * NodeView.KEY_OVERHEAD >= minFillBytes;
+    }
 
-                lfLeft.setParentNodeAddr(in.getStartPos());
-                lfRight.setParentNodeAddr(in.getStartPos());
+    /**
+     * build the tree bottom-up from key-value pairs sorted by key, the index file must only contain its header.
+     * nodes are filled with keys until fillFactor of a block is used, every node is written exactly once.
+     * a leaf gets its block when it is started, so the leaf before it can point to it, an internal node
+     * gets its block when it is written. leaves mostly follow each other, internal nodes are mixed in between them
+     * @param sortedEntries key-value pairs in ascending key order without duplicate keys
+     * @param fillFactor how full a node is, between 0 and 1
+     */
+    public void bulkLoad(Iterator<Map.Entry<byte[], Long>> sortedEntries, double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1)
+            throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+        if (!sortedEntries.hasNext())
+            return;
+
+        int fillLimit = (int) (pageSize * fillFactor);
+        List<BulkLevel> levels = new ArrayList<>(); // open internal nodes, levels.get(0) is the level above the leaves
+        indexFile.setCurrentSpaceOffset(pageSize); // the first leaf takes the block of the empty root
+        LeafNode lf = new LeafNode();
+        lf.setStartPos(indexFile.allocateBlock());
+        int keyBytes = 0;
+        while (sortedEntries.hasNext()) {
+            Map.Entry<byte[], Long> entry = sortedEntries.next();
+            byte[] key = entry.getKey();
+            if (!lf.keys.isEmpty()) {
+                int size = sizeWith(lf.keys, keyBytes, lf.getValueSize() + 1, key);
+                if (size > fillLimit || size > pageSize) {
+                    long nextAddr = indexFile.allocateBlock();
+                    lf.setNextLeaf(nextAddr);
+                    writeNodeIntoIndexFile(lf);
+                    addBulkChild(levels, 0, lf.getStartPos(), lf.keys.get(0), lf.keys.get(lf.keys.size() - 1), fillLimit);
+                    if (bufferPool.getDirtyCount() >= dirtyPageThreshold)
+                        writeBack(); // a new index has nothing to recover, blocks are not logged
+
+                    lf = new LeafNode();
+                    lf.setStartPos(nextAddr);
+                    keyBytes = 0;
+                }
+            }
+            lf.keys.add(key);
+            lf.values.add(entry.getValue());
+            keyBytes += key.length;
+        }
 
-                if (in.getValueSize() > m) {
-                    splitAndRebalance(in, indexFile);
+        lf.setNextLeaf(0L);
+        writeNodeIntoIndexFile(lf);
+        long rootAddr = lf.getStartPos();
+        addBulkChild(levels, 0, lf.getStartPos(), lf.keys.get(0), lf.keys.get(lf.keys.size() - 1), fillLimit);
+
+        // close the open nodes bottom-up, a level which never wrote a node holds the root
+        for (int i = 0; i < levels.size(); i++) {
+            BulkLevel level = levels.get(i);
+            if (level.pending == null) {
+                if (level.open.getValueSize() == 1) {
+                    rootAddr = level.open.values.get(0); // the level below has a single node
                 } else {
-                    // write two leaf nodes and parent node into index file
-                    writeNodeIntoIndexFile(lfLeft, indexFile);
-                    writeNodeIntoIndexFile(lfRight, indexFile);
-                    writeNodeIntoIndexFile(in, indexFile);
+                    writeBulkNode(level.open);
+                    rootAddr = level.open.getStartPos();
+                }
+                break;
+            }
+
+            if (level.open.getValueSize() == 1) {
+                // borrow the last child of the previous node, so no internal node has a single child
+                InternalNode prev = level.pending;
+                long child = prev.values.remove(prev.getValueSize() - 1);
+                byte[] childMinKey = level.pendingMinKeys.remove(level.pendingMinKeys.size() - 1);
+                level.open.keys.add(0, KeyUtil.shortestSeparator(level.pendingMaxKey, level.openMinKeys.get(0)));
+                level.open.values.add(0, child);
+                level.openMinKeys.add(0, childMinKey);
+                level.pendingMaxKey = prev.keys.remove(prev.getKeysSize() - 1); // not less than any key left under prev
+            }
+            writeBulkNode(level.pending);
+            addBulkChild(levels, i + 1, level.pending.getStartPos(), level.pendingMinKeys.get(0), level.pendingMaxKey, fillLimit);
+            writeBulkNode(level.open);
+            addBulkChild(levels, i + 1, level.open.getStartPos(), level.openMinKeys.get(0), level.openMaxKey, fillLimit);
+        }
 
-                    // update current space offset
-                    FileUtil.writeDataIntoFile(indexFile, DataTypeConvertUtil.longToBytes(curSpaceOffset), 272);
+        indexFile.setRootAddr(rootAddr);
+        writeBack();
+        indexFile.force();
+    }
+
+    /**
+     * add a written child node to the open node of a level. once the open node is full it is kept as the pending node
+     * and a new open node is started, the previous pending node is written then. keeping one full node unwritten
+     * lets the last open node borrow a child from it at the end
+     * @param levels internal levels of the tree being built
+     * @param level level of the parent, 0 is the level above the leaves
+     * @param childAddr child node address
+     * @param childMinKey smallest key stored under the child node
+     * @param childMaxKey largest key stored under the child node, or a key between it and the next child's smallest key
+     * @param fillLimit bytes a node is filled up to
+     */
+    private void addBulkChild(List<BulkLevel> levels, int level, long childAddr, byte[] childMinKey, byte[] childMaxKey, int fillLimit) {
+        if (level == levels.size())
+            levels.add(new BulkLevel());
+
+        BulkLevel bulkLevel = levels.get(level);
+        InternalNode in = bulkLevel.open;
+        if (in.getValueSize() > 0) {
+            byte[] separator = KeyUtil.shortestSeparator(bulkLevel.openMaxKey, childMinKey);
+            int size = sizeWith(in.keys, bulkLevel.openKeyBytes, in.getValueSize() + 1, separator);
+            // at least 3 children, so the node can spare one for the last node of the level
+            if ((size > fillLimit && in.getValueSize() >= 3) || size > pageSize) {
+                if (bulkLevel.pending != null) {
+                    writeBulkNode(bulkLevel.pending);
+                    addBulkChild(levels, level + 1, bulkLevel.pending.getStartPos(), bulkLevel.pendingMinKeys.get(0), bulkLevel.pendingMaxKey, fillLimit);
                 }
+                bulkLevel.pending = in;
+                bulkLevel.pendingMinKeys = bulkLevel.openMinKeys;
+                bulkLevel.pendingMaxKey = bulkLevel.openMaxKey;
+                in = bulkLevel.open = new InternalNode(new ArrayList<>(), new ArrayList<>());
+                bulkLevel.openMinKeys = new ArrayList<>();
+                bulkLevel.openKeyBytes = 0;
+            } else {
+                in.keys.add(separator);
+                bulkLevel.openKeyBytes += separator.length;
             }
-        } else {
-            InternalNode in = (InternalNode) node;
-            List<String> leftKeys = null;
-            if (in.keys.size() / 2 - 1 > 0)  // if keys only has 3 elements, then subList(0, 0) will return empty list, split fails
-                leftKeys = in.keys.subList(0, in.keys.size() / 2);
-            else
-                leftKeys = in.keys.subList(0, 1);
-
-            List<String> rightKeys = in.keys.subList(in.keys.size() / 2 + 1, in.keys.size());
-            List<Long> leftValues = in.values.subList(0, in.values.size() / 2);
-            List<Long> rightValues = in.values.subList(in.values.size() / 2, in.values.size());
-
-            long curSpaceOffset = FileUtil.getCurrentSpaceOffset(indexFile);
-            InternalNode inLeft = new InternalNode(leftKeys, leftValues);
-            inLeft.setStartPos(in.getStartPos());
-            InternalNode inRight = new InternalNode(rightKeys, rightValues);
-            inRight.setStartPos(curSpaceOffset);
-            curSpaceOffset += 1024;
-
-            String key = in.keys.get(in.keys.size() / 2);
-            // to check whether a node has parent node,
-            // if it doesn't have a parent node, split and create a parent node which is the root node
-            // if it has a parent node, split and insert the middle key to the parent node
-            if (in.getParentNodeAddr() == 0L) {
-                InternalNode inParent = new InternalNode(key, inLeft.getStartPos(), inRight.getStartPos());
-                inParent.setStartPos(curSpaceOffset);
-                curSpaceOffset += 1024;
-                root = inParent;
-
-                inLeft.setParentNodeAddr(root.getStartPos());
-                inRight.setParentNodeAddr(root.getStartPos());
-
-                // write two leaf node and root node into file
-                writeNodeIntoIndexFile(inLeft, indexFile);
-                writeNodeIntoIndexFile(inRight, indexFile);
-                writeNodeIntoIndexFile(root, indexFile);
-
-                // update root start position and current space offset
-                FileUtil.writeDataIntoFile(indexFile, DataTypeConvertUtil.longToBytes(root.getStartPos()), 264);
-                FileUtil.writeDataIntoFile(indexFile, DataTypeConvertUtil.longToBytes(curSpaceOffset), 272);
+        }
+        in.values.add(childAddr);
+        bulkLevel.openMinKeys.add(childMinKey);
+        bulkLevel.openMaxKey = childMaxKey;
+    }
+
+    /**
+     * give an internal node built by bulkLoad a block and write it
+     * @param in internal node
+     */
+    private void writeBulkNode(InternalNode in) {
+        in.setStartPos(indexFile.allocateBlock());
+        writeNodeIntoIndexFile(in);
+    }
+
+    /**
+     * bytes a node being built in key order takes once one more key is appended, computed without walking its keys
+     * @param keys keys of the node
+     * @param keyBytes total length of the keys
+     * @param valueCount number of pointers after appending
+     * @param key appended key, not less than any key of the node
+     * @return encoded size of the node
+     */
+    private static int sizeWith(List<byte[]> keys, int keyBytes, int valueCount, byte[] key) {
+        int prefixLength = KeyUtil.commonPrefixLength(keys.isEmpty() ? key : keys.get(0), key);
+        int keyCount = keys.size() + 1;
+        return NodeView.HEADER_SIZE + prefixLength + valueCount * 8 + keyCount * (NodeView.KEY_OVERHEAD - prefixLength) + keyBytes + key.length;
+    }
+
+    /**
+     * split an overfull node and insert the separator into its parent, a parent which overflows is split in turn.
+     * parents are taken from the pages latched on the way down, already in memory, nodes don't store their parent
+     * @param node overfull node
+     * @param path exclusively latched pages from the highest node a split can reach down to the node,
+     *             the first one either has room for one more child or is the root
+     */
+    private void splitAndRebalance(Node node, List<BufferPool.Page> path) {
+        int level = path.size() - 1;
+        while (true) {
+            Node left;
+            Node right;
+            byte[] separator;
+            long rightAddr = allocatePage();
+            if (node.isLeafNode) {
+                LeafNode lf = (LeafNode) node;
+                int half = splitPoint(lf);
+                int size = lf.keys.size();
+                if (lf.nextLeaf == null)
+                    lf.nextLeaf = 0L;
+                right = new LeafNode(new ArrayList<>(lf.keys.subList(half, size)), new ArrayList<>(lf.values.subList(half, size)), lf.nextLeaf);
+                left = new LeafNode(new ArrayList<>(lf.keys.subList(0, half)), new ArrayList<>(lf.values.subList(0, half)), rightAddr);
+                // keys less than or equal to the separator are found in the left node. the shortest key between the largest key
+                // of the left node and the smallest one of the right node is enough, it keeps internal nodes small
+                separator = KeyUtil.shortestSeparator(lf.keys.get(half - 1), lf.keys.get(half));
             } else {
-                InternalNode inParent = (InternalNode) retrieveNodeFromDisk(indexFile, in.getParentNodeAddr());
-                inParent.insert(key, inLeft.getStartPos(), inRight.getStartPos()); // insert the key from child node into parent node, also add left child and right child pointers
+                // keys[mid] separates values[mid], the last child of the left node, from the right node
+                InternalNode in = (InternalNode) node;
+                int mid = splitPoint(in);
+                left = new InternalNode(new ArrayList<>(in.keys.subList(0, mid)), new ArrayList<>(in.values.subList(0, mid + 1)));
+                right = new InternalNode(new ArrayList<>(in.keys.subList(mid + 1, in.keys.size())), new ArrayList<>(in.values.subList(mid + 1, in.values.size())));
+                separator = in.keys.get(mid);
+            }
+            left.setStartPos(node.getStartPos());
+            right.setStartPos(rightAddr);
+            metrics.split();
+
+            if (level == 0) {
+                // the node is the root, the root latch is still held since the root was full
+                InternalNode newRoot = new InternalNode(separator, left.getStartPos(), right.getStartPos());
+                newRoot.setStartPos(allocatePage());
+
+                writeNodeIntoIndexFile(left);
+                writeNewNode(right);
+                writeNewNode(newRoot);
+                indexFile.setRootAddr(newRoot.getStartPos());
+                metrics.newRoot();
+                return;
+            }
 
-                inLeft.setParentNodeAddr(inParent.getStartPos());
-                inRight.setParentNodeAddr(inParent.getStartPos());
+            BufferPool.Page parentPage = path.get(level - 1);
+            InternalNode parent = (InternalNode) decodeNode(new NodeView().wrap(parentPage.getBuffer(), 0, parentPage.getAddr()));
+            parent.insert(separator, left.getStartPos(), right.getStartPos()); // insert the key from child node into parent node, also add left child and right child pointers
+            writeNodeIntoIndexFile(left);
+            writeNewNode(right);
+            if (fits(parent)) {
+                writeNodeIntoIndexFile(parent);
+                return;
+            }
 
-                if (inParent.getValueSize() > m) {
-                    splitAndRebalance(in, indexFile);
+            node = parent;
+            level--;
+        }
+    }
+
+    /**
+     * where to split an overfull node. keys are stored at their own length, so the middle key can leave most of the bytes
+     * on one side: the cut is made where about half of the bytes are on the left, then moved towards the larger half
+     * while that half doesn't fit into a block
+     * @param node overfull node
+     * @return for a leaf the first key of the right node, for an internal node the separator moving up into the parent
+     */
+    private int splitPoint(Node node) {
+        List<byte[]> keys = node.keys;
+        int n = keys.size();
+        boolean leaf = node.isLeafNode;
+        int total = 0;
+        for (byte[] key : keys)
+            total += key.length + NodeView.KEY_OVERHEAD + 8;
+        int cut = 0;
+        int bytes = 0;
+        while (cut < n && bytes < total / 2)
+            bytes += keys.get(cut++).length + NodeView.KEY_OVERHEAD + 8;
+
+        // both sides keep at least one key, an internal node also keeps one for the parent
+        int min = 1;
+        int max = leaf ? n - 1 : n - 2;
+        cut = Math.max(min, Math.min(cut, max));
+        for (int i = 0; i < n; i++) {
+            int leftSize = leaf ? NodeView.encodedSize(keys.subList(0, cut), cut) : NodeView.encodedSize(keys.subList(0, cut), cut + 1);
+            int rightSize = leaf ? NodeView.encodedSize(keys.subList(cut, n), n - cut) : NodeView.encodedSize(keys.subList(cut + 1, n), n - cut);
+            if (leftSize > pageSize && cut > min)
+                cut--;
+            else if (rightSize > pageSize && cut < max)
+                cut++;
+            else
+                break;
+        }
+        return cut;
+    }
+
+    /**
+     * write a node which lost an entry. a node below the underflow threshold is merged with a sibling if both fit into
+     * one block, otherwise entries are moved over from the sibling. a merge removes a separator from the parent,
+     * which may underflow in turn, and a root left with a single child is replaced by that child.
+     * parents and siblings are taken from the latched path like in splitAndRebalance
+     * @param node node which lost an entry
+     * @param path exclusively latched pages from the highest node a merge can reach down to the node,
+     *             the first one either can't underflow or is the root
+     */
+    private void rebalance(Node node, List<BufferPool.Page> path) {
+        NodeView view = new NodeView();
+        int level = path.size() - 1;
+        while (true) {
+            if (level == 0) {
+                if (!node.isLeafNode && node.values.size() == 1) {
+                    // the root latch is still held since the root had only two children
+                    indexFile.setRootAddr(node.values.get(0));
+                    freePage(node.getStartPos());
+                } else {
+                    writeNodeIntoIndexFile(node);
+                }
+                return;
+            }
+
+            if (!underflows(node)) {
+                writeNodeIntoIndexFile(node);
+                return;
+            }
+            BufferPool.Page parentPage = path.get(level - 1);
+            InternalNode parent = (InternalNode) decodeNode(view.wrap(parentPage.getBuffer(), 0, parentPage.getAddr()));
+            if (parent.values.size() < 2) {
+                writeNodeIntoIndexFile(node); // no sibling to merge with
+                return;
+            }
+
+            // siblings are latched left to right, the order readers walk the leaves in. to latch the left sibling the node
+            // is released and latched again, the parent stays latched so no other writer can reach the node meanwhile
+            int index = parent.values.indexOf(node.getStartPos());
+            int leftIndex = index + 1 < parent.values.size() ? index : index - 1;
+            BufferPool.Page siblingPage = null;
+            try {
+                Node left;
+                Node right;
+                if (leftIndex == index) {
+                    siblingPage = latch(parent.values.get(index + 1), view, true);
+                    left = node;
+                    right = decodeNode(view);
                 } else {
-                    // write two leaf node and parent node into file
-                    writeNodeIntoIndexFile(inLeft, indexFile);
-                    writeNodeIntoIndexFile(inRight, indexFile);
-                    writeNodeIntoIndexFile(inParent, indexFile);
+                    release(path.set(level, null), true);
+                    siblingPage = latch(parent.values.get(leftIndex), view, true);
+                    left = decodeNode(view);
+                    path.set(level, latch(node.getStartPos(), view, true));
+                    right = node;
+                }
 
-                    // update current space offse
-                    FileUtil.writeDataIntoFile(indexFile, DataTypeConvertUtil.longToBytes(curSpaceOffset), 272);
+                Node merged = merge(left, right, parent.keys.get(leftIndex));
+                if (fits(merged)) {
+                    metrics.merge();
+                    writeNodeIntoIndexFile(merged);
+                    freePage(right.getStartPos());
+                    parent.keys.remove(leftIndex);
+                    parent.values.remove(leftIndex + 1);
+                    node = parent;
+                    level--;
+                    continue;
                 }
+
+                if (redistribute(left, right, parent, leftIndex)) {
+                    writeNodeIntoIndexFile(left);
+                    writeNodeIntoIndexFile(right);
+                    writeNodeIntoIndexFile(parent);
+                } else {
+                    writeNodeIntoIndexFile(node); // a node below the threshold is still a valid node
+                }
+                return;
+            } finally {
+                release(siblingPage, true);
             }
         }
     }
 
     /**
-     * convert a node into byte array and then write the byte array into index file
+     * join two siblings into one node in the block of the left one, an internal node takes the separator between them too
+     * @param left left sibling
+     * @param right right sibling
+     * @param separator separator between them in the parent
+     * @return joined node, it may not fit into a block
+     */
+    private Node merge(Node left, Node right, byte[] separator) {
+        List<byte[]> keys = new ArrayList<>(left.keys);
+        if (!left.isLeafNode)
+            keys.add(separator);
+        keys.addAll(right.keys);
+        List<Long> values = new ArrayList<>(left.values);
+        values.addAll(right.values);
+
+        Node merged = left.isLeafNode ? new LeafNode(keys, values, ((LeafNode) right).nextLeaf) : new InternalNode(keys, values);
+        merged.setStartPos(left.getStartPos());
+        return merged;
+    }
+
+    /**
+     * move entries between two siblings so both use about the same number of bytes, the separator between them
+     * in the parent is replaced. a leaf separator is shortened again, an internal one moves through the parent
+     * @param left left sibling
+     * @param right right sibling
+     * @param parent parent of both
+     * @param leftIndex index of left in the parent
+     * @return false if the entries can't be shared out so that both siblings and the parent fit into their blocks,
+     *         nothing is changed then
+     */
+    private boolean redistribute(Node left, Node right, InternalNode parent, int leftIndex) {
+        boolean leaf = left.isLeafNode;
+        List<byte[]> keys = new ArrayList<>(left.keys);
+        if (!leaf)
+            keys.add(parent.keys.get(leftIndex));
+        keys.addAll(right.keys);
+        List<Long> values = new ArrayList<>(left.values);
+        values.addAll(right.values);
+        int n = keys.size();
+        if (n < (leaf ? 2 : 3))
+            return false;
+
+        // cut where half of the bytes are on the left, both sides keep at least one key
+        int total = 0;
+        for (byte[] key : keys)
+            total += key.length + NodeView.KEY_OVERHEAD + 8;
+        int cut = 0;
+        int bytes = 0;
+        while (cut < n && bytes < total / 2)
+            bytes += keys.get(cut++).length + NodeView.KEY_OVERHEAD + 8;
+        cut = Math.max(1, Math.min(cut, n - (leaf ? 1 : 2)));
+
+        List<byte[]> leftKeys = new ArrayList<>(keys.subList(0, cut));
+        List<byte[]> rightKeys;
+        List<Long> leftValues;
+        List<Long> rightValues;
+        byte[] separator;
+        if (leaf) {
+            rightKeys = new ArrayList<>(keys.subList(cut, n));
+            leftValues = new ArrayList<>(values.subList(0, cut));
+            rightValues = new ArrayList<>(values.subList(cut, n));
+            separator = KeyUtil.shortestSeparator(keys.get(cut - 1), keys.get(cut));
+        } else {
+            // keys[cut] separates values[cut], the last child of the left node, from the right node
+            rightKeys = new ArrayList<>(keys.subList(cut + 1, n));
+            leftValues = new ArrayList<>(values.subList(0, cut + 1));
+            rightValues = new ArrayList<>(values.subList(cut + 1, n + 1));
+            separator = keys.get(cut);
+        }
+
+        byte[] oldSeparator = parent.keys.set(leftIndex, separator);
+        if (NodeView.encodedSize(leftKeys, leftValues.size()) > pageSize || NodeView.encodedSize(rightKeys, rightValues.size()) > pageSize
+                || !fits(parent)) {
+            parent.keys.set(leftIndex, oldSeparator);
+            return false;
+        }
+        left.keys = leftKeys;
+        left.values = leftValues;
+        right.keys = rightKeys;
+        right.values = rightValues;
+        return true;
+    }
+
+    /**
+     * take a block for a new node, a block on the free list is reused before the file is extended
+     * @return start position of the block
+     */
+    private long allocatePage() {
+        synchronized (freeListLock) {
+            long head = indexFile.getFreeListHead();
+            if (head == 0L)
+                return indexFile.allocateBlock();
+
+            NodeView view = new NodeView();
+            BufferPool.Page page = latch(head, view, false);
+            try {
+                indexFile.setFreeListHead(view.nextLeaf());
+            } finally {
+                release(page, false);
+            }
+            return head;
+        }
+    }
+
+    /**
+     * put the block of a node which is gone onto the free list, the block is cleared and holds the address of the next free block
+     * where a leaf holds its next leaf. the caller holds the block latched exclusively, a cursor which still has its address
+     * finds no leaf there and descends from the root
+     * @param startPos start position of the block
+     */
+    private void freePage(long startPos) {
+        ByteBuffer buffer = nodeBuffers.get();
+        buffer.clear();
+        while (buffer.hasRemaining())
+            buffer.put((byte) 0);
+
+        synchronized (freeListLock) {
+            buffer.putLong(NodeView.NEXT_LEAF_OFFSET, indexFile.getFreeListHead());
+            bufferPool.putDirty(startPos, buffer.array());
+            indexFile.setFreeListHead(startPos);
+        }
+    }
+
+    /**
+     * write a node into a block taken by allocatePage, under an exclusive latch since the block may have been freed
+     * while a cursor kept its address
      * @param node node
-     * @param indexFile index file
-     */
-    private void writeNodeIntoIndexFile(Node node, String indexFile) {
-        List<byte[]> bytesList = new ArrayList<>();
-        byte[] leafNodeBytes = new byte[1];
-        leafNodeBytes[0] = DataTypeConvertUtil.booleanToBytes(node.isLeafNode); // whether it is a leaf node
-        byte[] keySizeBytes = new byte[1];
-        keySizeBytes[0] = (byte) node.getKeysSize();
-        byte[] valueSizeBytes = new byte[1];
-        valueSizeBytes[0] = (byte) node.getValueSize();
-        byte[] nextLeafAddrBytes = new byte[8];
-        byte[] parentAddrBytes = DataTypeConvertUtil.longToBytes(node.getParentNodeAddr());
+     */
+    private void writeNewNode(Node node) {
+        BufferPool.Page page = latch(node.getStartPos(), new NodeView(), true);
+        try {
+            writeNodeIntoIndexFile(node);
+        } finally {
+            release(page, true);
+        }
+    }
+
+    /**
+     * convert a node into a block and keep it in the buffer pool as a dirty block,
+     * rewriting a node before the next flush costs no I/O
+     * @param node node
+     */
+    private void writeNodeIntoIndexFile(Node node) {
+        long nextLeaf = 0L;
         if (node.isLeafNode) {
             LeafNode lf = (LeafNode) node;
             if (lf.nextLeaf == null)
                 lf.nextLeaf = 0L;
-            nextLeafAddrBytes = DataTypeConvertUtil.longToBytes(lf.nextLeaf);
-        }
-        // convert keys to byte array
-        StringBuilder sb = new StringBuilder();
-        for (String key : node.keys) {
-            sb.append(key);
+            nextLeaf = lf.nextLeaf;
         }
-        byte[] keysBytes = sb.toString().getBytes();
 
-        bytesList.add(leafNodeBytes);
-        bytesList.add(keySizeBytes);
-        bytesList.add(valueSizeBytes);
-        bytesList.add(nextLeafAddrBytes);
-        bytesList.add(parentAddrBytes);
-        bytesList.add(keysBytes);
+        if (!fits(node))
+            throw new IllegalStateException("node at " + node.getStartPos() + " doesn't fit into a block of " + pageSize + " bytes");
 
-        // convert values to byte array
-        for (long value : node.values) {
-            bytesList.add(DataTypeConvertUtil.longToBytes(value));
-        }
+        ByteBuffer buffer = nodeBuffers.get();
+        buffer.clear();
+        NodeView.encode(buffer, node.isLeafNode, node.keys, node.values, nextLeaf);
+        while (buffer.hasRemaining())
+            buffer.put((byte) 0);
 
-        byte[] nodeBytes = new byte[1024];
-        ByteBuffer buffer = ByteBuffer.wrap(nodeBytes);
-        for (byte[] bytes : bytesList) {
-            buffer.put(bytes);
-        }
-
-        FileUtil.writeDataIntoFile(indexFile, nodeBytes, node.getStartPos());
-        
+        bufferPool.putDirty(node.getStartPos(), buffer.array());
     }
 
     /**
      * public method, able to be invoked from outside the class
      * @param key key
-     * @param indexFile index file
      * @return record starting position, -1 if the key is not found
      */
-    public long find(String key, String indexFile) {
-        if (root == null)
-            // when root is null, set root, retrieve the position of root node in index file
-            setRoot(indexFile);
-
-        return find(root, key, indexFile);
+    public long find(byte[] key) {
+        if (indexFile.getRootAddr() == 0L)
+            return -1L;
 
+        NodeView view = new NodeView();
+        BufferPool.Page page = descend(key, view, null);
+        try {
+            int index = view.keyCount() == 0 ? -1 : view.search(key);
+            return index >= 0 ? view.pointerAt(index) : -1L;
+        } finally {
+            release(page, false);
+        }
     }
 
     /**
-     * private method, used to recursively call itself to find whether the key is in index file
-     * @param node node
-     * @param key key
-     * @param indexFile index
-     * @return next node starting position or -1L if the key is not found
+     * look up many keys with one walk over the tree. the keys are sorted and the path to the last leaf stays latched,
+     * the next key only climbs to the lowest node whose key range still covers it, so neighbouring keys share
+     * internal nodes and leaves
+     * @param keys keys
+     * @return record starting position of every key in iteration order, -1 if the key is not found
      */
-    private long find(Node node, String key, String indexFile) {
-        if (node == null)
-            return -1L;
+    public List<Long> findAll(Collection<byte[]> keys) {
+        List<byte[]> probes = new ArrayList<>(keys);
+        int n = probes.size();
+        Long[] results = new Long[n];
+        Arrays.fill(results, -1L);
+        if (n == 0 || indexFile.getRootAddr() == 0L)
+            return Arrays.asList(results);
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> KeyComparator.compare(probes.get(a), probes.get(b)));
+
+        // path from root down to the current leaf, the separator bounding every node from above, null if unbounded
+        List<BufferPool.Page> pages = new ArrayList<>();
+        List<Long> addrs = new ArrayList<>();
+        List<byte[]> bounds = new ArrayList<>();
+        NodeView view = new NodeView();
+        try {
+            rootLatch.readLock().lock();
+            try {
+                long rootAddr = rootAddress();
+                pages.add(latch(rootAddr, view, false));
+                addrs.add(rootAddr);
+                bounds.add(null);
+            } finally {
+                rootLatch.readLock().unlock();
+            }
 
-        if (node.isLeafNode) {
-            // leaf node, find the key
-            LeafNode lf = (LeafNode) node;
-            int index = lf.keys.indexOf(key);
-            if (index != -1)
-                return lf.values.get(index);
-            else
-                return (long) index;
-        } else {
-            // internal node
-            InternalNode in = (InternalNode) node;
-            long pointer = -1L;
-            if (key.compareTo(in.keys.get(in.keys.size() - 1)) > 0)
-                pointer = in.values.get(in.values.size() - 1);
-            else {
-                for (int i = 0; i < in.keys.size(); i++) {
-                    if (key.compareTo(in.keys.get(i)) <= 0) {
-                        pointer = in.values.get(i);
-                        break;
+            for (int i = 0; i < n; i++) {
+                byte[] key = probes.get(order[i]);
+                int depth = pages.size();
+                while (depth > 1 && bounds.get(depth - 1) != null && KeyComparator.compare(key, bounds.get(depth - 1)) > 0)
+                    depth--;
+                if (depth < pages.size()) {
+                    while (pages.size() > depth) {
+                        int last = pages.size() - 1;
+                        release(pages.remove(last), false);
+                        addrs.remove(last);
+                        bounds.remove(last);
                     }
+                    BufferPool.Page page = pages.get(depth - 1);
+                    if (page != null)
+                        view.wrap(page.getBuffer(), 0, page.getAddr());
+                    else
+                        pinView(addrs.get(depth - 1), view); // memory mapped, nothing is pinned
                 }
-            }
 
-            Node nextNode = retrieveNodeFromDisk(indexFile, pointer);
-            return find(nextNode, key, indexFile);
+                while (!isLeafOrEmpty(view)) {
+                    int index = view.childIndex(key);
+                    long child = view.pointerAt(index);
+                    byte[] bound = index < view.keyCount() ? view.keyAt(index) : bounds.get(bounds.size() - 1);
+                    pages.add(latch(child, view, false));
+                    addrs.add(child);
+                    bounds.add(bound);
+                }
+
+                if (view.keyCount() > 0) {
+                    int pos = view.search(key);
+                    if (pos >= 0)
+                        results[order[i]] = view.pointerAt(pos);
+                }
+            }
+        } finally {
+            for (BufferPool.Page page : pages)
+                release(page, false);
         }
+
+        return Arrays.asList(results);
     }
 
     /**
-     * get the key-value pairs starts from the given key and the length is len
+     * get the values of n key-value pairs starting from the given key, or from the next larger key if it doesn't exist
      * @param key key
      * @param n n
-     * @param indexFile index file
-     * @return a map to store n key-value pairs
+     * @return values of at most n key-value pairs in key order, null if the tree has no root yet
      */
-    public List<Long> traverseLeafNodes(String key, int n, String indexFile) {
-        if (root == null)
-            setRoot(indexFile);
-
-        if (root == null)
+    public List<Long> traverseLeafNodes(byte[] key, int n) {
+        if (indexFile.getRootAddr() == 0L)
             return null;
 
-        LeafNode lf = (LeafNode) findLeaf(root, key, indexFile);
+        List<Long> addrList = new ArrayList<>();
+        RangeCursor cursor = cursor(key, true, null, false, false);
+        while (addrList.size() < n && cursor.hasNext())
+            addrList.add(cursor.next().getValue());
+        return addrList;
+    }
 
-        return traverseLeafNodes(lf, key, n, indexFile);
+    /**
+     * iterate over the key-value pairs of a key range, leaves are read lazily one at a time
+     * @param from lower bound, null for no lower bound
+     * @param fromInclusive whether a pair with key from is included
+     * @param to upper bound, null for no upper bound
+     * @param toInclusive whether a pair with key to is included
+     * @param reverse true to iterate from the upper bound down
+     * @return cursor over the pairs of the range
+     */
+    public RangeCursor cursor(byte[] from, boolean fromInclusive, byte[] to, boolean toInclusive, boolean reverse) {
+        return new RangeCursor(this, from, fromInclusive, to, toInclusive, reverse);
     }
 
     /**
-     * find the leaf node
-     * @param node node
-     * @param key key
-     * @param indexFile index file
-     * @return leaf node
+     * spliterator over the key-value pairs of a key range, it splits along the separators of internal nodes,
+     * so the parts of a parallel stream scan disjoint subtrees
+     * @param from lower bound, null for no lower bound
+     * @param fromInclusive whether a pair with key from is included
+     * @param to upper bound, null for no upper bound
+     * @param toInclusive whether a pair with key to is included
+     * @return spliterator over the pairs of the range in key order
      */
-    private Node findLeaf(Node node, String key, String indexFile) {
-        long pointer = -1L;
-        if (node.isLeafNode) {
-            return node;
-        }
-        else {
-            InternalNode in = (InternalNode) node;
-            if (key.compareTo(in.keys.get(in.keys.size() - 1)) > 0)
-                pointer = in.values.get(in.values.size() - 1);
-            else {
-                for (int i = 0; i < in.keys.size(); i++) {
-                    if (key.compareTo(in.keys.get(i)) <= 0) {
-                        pointer = in.values.get(i);
-                        break;
+    public KeyRangeSpliterator spliterator(byte[] from, boolean fromInclusive, byte[] to, boolean toInclusive) {
+        return new KeyRangeSpliterator(this, from, fromInclusive, to, toInclusive, estimateCount());
+    }
+
+    /**
+     * stream the key-value pairs of a key range
+     * @param parallel true for a parallel stream, the range is then scanned by several threads
+     * @return stream of the pairs of the range, in key order unless the stream is made unordered
+     */
+    public Stream<Map.Entry<byte[], Long>> stream(byte[] from, boolean fromInclusive, byte[] to, boolean toInclusive, boolean parallel) {
+        return StreamSupport.stream(spliterator(from, fromInclusive, to, toInclusive), parallel);
+    }
+
+    /**
+     * estimate how many pairs the tree holds from the fanout along the leftmost path
+     * @return estimated number of key-value pairs
+     */
+    private long estimateCount() {
+        if (indexFile.getRootAddr() == 0L)
+            return 0L;
+
+        NodeView view = new NodeView();
+        BufferPool.Page page = latchRoot(view);
+        try {
+            long count = 1L;
+            while (!isLeafOrEmpty(view)) {
+                count *= view.valueCount();
+                BufferPool.Page parent = page;
+                page = null;
+                page = latch(view.pointerAt(0), view, false);
+                release(parent, false);
+            }
+            return count * view.keyCount();
+        } finally {
+            release(page, false);
+        }
+    }
+
+    /**
+     * @return levels from the root down to the leaves along the leftmost path, 1 if the root is a leaf, 0 if there is no tree
+     */
+    public int height() {
+        if (indexFile.getRootAddr() == 0L)
+            return 0;
+
+        NodeView view = new NodeView();
+        BufferPool.Page page = latchRoot(view);
+        try {
+            int height = 1;
+            while (!isLeafOrEmpty(view)) {
+                BufferPool.Page parent = page;
+                page = null;
+                page = latch(view.pointerAt(0), view, false);
+                release(parent, false);
+                height++;
+            }
+            return height;
+        } finally {
+            release(page, false);
+        }
+    }
+
+    /**
+     * walk every node to count nodes and keys and measure how full the pages are. the root latch is held shared during
+     * the walk, so the root can't split or be replaced and every leaf is counted at the same height. a node is latched
+     * shared only while it is read, so splits and merges below the root still go on, and counts taken meanwhile are approximate
+     * @return statistics of the tree
+     */
+    public TreeStatistics statistics() {
+        if (indexFile.getRootAddr() == 0L)
+            return new TreeStatistics(0, 0L, 0L, 0L, 0.0, 0.0);
+
+        int height = 0;
+        long internalNodes = 0;
+        long leaves = 0;
+        long keys = 0;
+        long internalBytes = 0;
+        long leafBytes = 0;
+        NodeView view = new NodeView();
+        Deque<long[]> pending = new ArrayDeque<>(); // address and level of the nodes still to visit
+        rootLatch.readLock().lock();
+        try {
+            pending.push(new long[]{rootAddress(), 1});
+            while (!pending.isEmpty()) {
+                long[] next = pending.pop();
+                BufferPool.Page page = latch(next[0], view, false);
+                try {
+                    if (isLeafOrEmpty(view)) {
+                        height = Math.max(height, (int) next[1]);
+                        leaves++;
+                        keys += view.keyCount();
+                        leafBytes += view.usedBytes();
+                    } else {
+                        internalNodes++;
+                        internalBytes += view.usedBytes();
+                        for (int i = view.valueCount() - 1; i >= 0; i--)
+                            pending.push(new long[]{view.pointerAt(i), next[1] + 1});
                     }
+                } finally {
+                    release(page, false);
                 }
             }
-
+        } finally {
+            rootLatch.readLock().unlock();
         }
-        Node nextNode = retrieveNodeFromDisk(indexFile, pointer);
-        return findLeaf(nextNode, key, indexFile);
+
+        return new TreeStatistics(height, internalNodes, leaves, keys,
+                internalNodes == 0 ? 0.0 : (double) internalBytes / (internalNodes * pageSize),
+                (double) leafBytes / (leaves * pageSize));
     }
 
     /**
-     * traverse leaf node, find the next n items starts from the key's position
-     * @param lf leaf node
-     * @param key key
-     * @param n the number of items need to be traversed if possible
-     * @param indexFile index file
-     * @return record address list
+     * find a separator which splits a key range along the tree. the walk goes down to the highest node in which
+     * the range covers more than one child and takes the separator after the middle one of those children
+     * @param from lower bound, null for no lower bound
+     * @param fromInclusive whether a pair with key from is in the range
+     * @param to upper bound, null for no upper bound
+     * @param leftShare if not null, leftShare[0] receives the share of those children before the separator
+     * @return separator, keys less than or equal to it form the first part, null if the range lies within one leaf
      */
-    private List<Long> traverseLeafNodes(LeafNode lf, String key, int n, String indexFile) {
-        List<Long> addrList = new ArrayList<>();
+    byte[] splitKey(byte[] from, boolean fromInclusive, byte[] to, double[] leftShare) {
+        if (indexFile.getRootAddr() == 0L)
+            return null;
 
-        // leaf node, traverse the node starts from the key position, to find the next n items
-        int keyPos = lf.keys.indexOf(key);
-        if (keyPos == -1) {
-            for (int i = 0; i < lf.keys.size(); i++) {
-                if (key.compareTo(lf.keys.get(i)) < 0) {
-                    addrList.add(lf.values.get(i)); // find the next larger key's related value
-                    break;
+        NodeView view = new NodeView();
+        BufferPool.Page page = latchRoot(view);
+        try {
+            while (!isLeafOrEmpty(view)) {
+                int low = 0;
+                if (from != null) {
+                    // a range starting after a separator starts in the child after it
+                    int pos = view.search(from);
+                    low = pos >= 0 && !fromInclusive ? pos + 1 : KeyComparator.lowerBound(pos);
+                }
+                int high = to == null ? view.valueCount() - 1 : view.childIndex(to);
+                if (high > low) {
+                    int mid = low + (high - low) / 2;
+                    if (leftShare != null)
+                        leftShare[0] = (double) (mid - low + 1) / (high - low + 1);
+                    return view.keyAt(mid);
                 }
+
+                BufferPool.Page parent = page;
+                page = null;
+                page = latch(view.pointerAt(low), view, false);
+                release(parent, false);
             }
-        } else {
-            int i = keyPos;
-            while (addrList.size() < n) {
-                if (i < lf.values.size()) {
-                    addrList.add(lf.values.get(i));
-                    i++; // ready to traverse the next value in lf.values
+            return null;
+        } finally {
+            release(page, false);
+        }
+    }
+
+    /**
+     * copy the pairs following a key out of one leaf, no latch is held once it returns.
+     * the leaf read last is tried first, it is still the right leaf as long as it holds the key
+     * @param key pairs after this key are read, null to read from the first pair
+     * @param inclusive whether a pair with the key itself is read
+     * @param hint address of the leaf read last, which held key, 0 if there is none
+     * @param keys receives keys in ascending order
+     * @param values receives the values of the keys
+     * @return address of the leaf read, 0 if no pair follows the key
+     */
+    long readForward(byte[] key, boolean inclusive, long hint, List<byte[]> keys, List<Long> values) {
+        if (indexFile.getRootAddr() == 0L)
+            return 0L;
+
+        NodeView view = new NodeView();
+        BufferPool.Page page = null;
+        try {
+            int i = -1;
+            if (hint != 0L && key != null) {
+                page = latch(hint, view, false);
+                int pos = view.isLeaf() ? view.search(key) : -1;
+                if (pos >= 0) {
+                    i = inclusive ? pos : pos + 1;
                 } else {
-                    i = 0; // set i = 0, ready to traverse the next leaf node
-                    if (lf.nextLeaf != 0L)
-                        lf = (LeafNode) retrieveNodeFromDisk(indexFile, lf.nextLeaf);
-                    else
-                        break; // no next leaf, return addrList
+                    release(page, false);
+                    page = null;
                 }
             }
+            if (i < 0) {
+                page = descend(key == null ? EMPTY_KEY : key, view, null);
+                int pos = view.search(key == null ? EMPTY_KEY : key);
+                i = pos < 0 ? -pos - 1 : inclusive ? pos : pos + 1;
+            }
+
+            while (i >= view.keyCount()) {
+                long nextLeaf = view.nextLeaf();
+                if (nextLeaf == 0L)
+                    return 0L;
+                // the next leaf is latched before the current one is released, leaves are always latched left to right
+                BufferPool.Page current = page;
+                page = null;
+                page = latch(nextLeaf, view, false);
+                release(current, false);
+                i = 0;
+            }
+            for (; i < view.keyCount(); i++) {
+                keys.add(view.keyAt(i));
+                values.add(view.pointerAt(i));
+            }
+            return view.getStartPos();
+        } finally {
+            release(page, false);
         }
-        return addrList;
     }
 
     /**
-     * retrieve 1k block and covert it to node
-     * @param indexFile index file
-     * @param startPos start position
-     * @return Node instance
+     * copy the pairs preceding a key out of one leaf, no latch is held once it returns.
+     * leaves only point to the next leaf, so the leaf before is found by descending from the root
+     * with the separator which bounds the leaf read from below
+     * @param key pairs before this key are read, null to read from the last pair
+     * @param inclusive whether a pair with the key itself is read
+     * @param keys receives keys in ascending order
+     * @param values receives the values of the keys
+     * @return key to read the leaf before with, inclusive, null if the leaf read is the first one
      */
-    private Node retrieveNodeFromDisk(String indexFile, long startPos) {
-        if (startPos == -1L)
+    byte[] readBackward(byte[] key, boolean inclusive, List<byte[]> keys, List<Long> values) {
+        if (indexFile.getRootAddr() == 0L)
             return null;
 
-        byte[] nodeContent = FileUtil.getDataBlock(indexFile, 1024, startPos);
-        boolean isLeafNode = (int) nodeContent[0] != 0; //TODO test whether this flag is assigned correctly
-        int curKeyCount = (int) nodeContent[1]; // how many keys are currently in the node
-        int curValueCount = (int) nodeContent[2]; // how many values(pointers) are currently in the node
-        byte[] nextLeafAddrBytes = Arrays.copyOfRange(nodeContent, 3, 11);
-        long nextLeafAddr = DataTypeConvertUtil.bytesToLong(nextLeafAddrBytes);  // next leaf node address
-        byte[] parentNodeAddrBytes = Arrays.copyOfRange(nodeContent, 11, 19);
-        long parentNodeAddr = DataTypeConvertUtil.bytesToLong(parentNodeAddrBytes); // parent node address
-        ArrayList<String> keys = new ArrayList<>();
-        ArrayList<Long> values = new ArrayList<>();
-        int offset = 19; // 1(tree or leaf node flag) + 1(current key count) + 1(current value count) + 8(store next leaf address) + 8(store parent node address)
-        for (int i = 0; i < curKeyCount; i++) {
-            byte[] keyBytes = Arrays.copyOfRange(nodeContent, offset, offset + keySize);
-            keys.add(new String(keyBytes));
-            offset += keySize;
-        }
-        for (int i = 0; i < curValueCount; i++) {
-            byte[] valueBytes = Arrays.copyOfRange(nodeContent, offset, offset + 8);
-            values.add(DataTypeConvertUtil.bytesToLong(valueBytes));
-            offset += 8; // retrieve 8 bytes pointer, thus offset plus 8 every time
+        NodeView view = new NodeView();
+        byte[][] lowerBound = new byte[1][];
+        while (true) {
+            lowerBound[0] = null;
+            BufferPool.Page page = descend(key, view, lowerBound);
+            try {
+                int end = view.keyCount();
+                if (key != null) {
+                    int pos = view.search(key);
+                    end = pos < 0 ? -pos - 1 : inclusive ? pos + 1 : pos;
+                }
+                for (int i = 0; i < end; i++) {
+                    keys.add(view.keyAt(i));
+                    values.add(view.pointerAt(i));
+                }
+            } finally {
+                release(page, false);
+            }
+            if (!keys.isEmpty() || lowerBound[0] == null)
+                return lowerBound[0];
+
+            // every key of the leaf is after the key, the pairs before are not greater than its lower bound
+            key = lowerBound[0];
+            inclusive = true;
         }
+    }
 
-        Node node;
-        if (isLeafNode)
-            node = new LeafNode(keys, values, nextLeafAddr);
+    /**
+     * latch the root shared, the root latch is only held while the root address is read and its block latched
+     * @param view view which is left pointing at the root
+     * @return pinned page of the root latched shared
+     */
+    private BufferPool.Page latchRoot(NodeView view) {
+        rootLatch.readLock().lock();
+        try {
+            return latch(rootAddress(), view, false);
+        } finally {
+            rootLatch.readLock().unlock();
+        }
+    }
+
+    /**
+     * walk from root down to the leaf which may hold the key with shared latches,
+     * a child is latched before its parent is released, internal nodes are read in place
+     * @param key key bytes, null to walk down to the last leaf
+     * @param view view which is left pointing at the leaf, or at the root block if the tree is empty
+     * @param lowerBound if not null, lowerBound[0] receives the separator bounding the leaf from below,
+     *                   it is left unchanged for the first leaf
+     * @return pinned page of the leaf latched shared, must be released with release(page, false)
+     */
+    private BufferPool.Page descend(byte[] key, NodeView view, byte[][] lowerBound) {
+        BufferPool.Page page = latchRoot(view);
+
+        try {
+            while (!isLeafOrEmpty(view)) {
+                int index = key == null ? view.valueCount() - 1 : view.childIndex(key);
+                if (lowerBound != null && index > 0)
+                    lowerBound[0] = view.keyAt(index - 1); // a lower level gives a tighter bound
+                long child = view.pointerAt(index);
+                BufferPool.Page parent = page;
+                page = null;
+                page = latch(child, view, false);
+                release(parent, false);
+            }
+            return page;
+        } catch (RuntimeException e) {
+            release(page, false);
+            throw e;
+        }
+    }
+
+    /**
+     * @return root node address, the next block after header block if there is no header yet
+     */
+    private long rootAddress() {
+        long rootAddr = indexFile.getRootAddr();
+        return rootAddr == 0L ? pageSize : rootAddr;
+    }
+
+    /**
+     * pin a block and latch it, the view is pointed at the block
+     * @param startPos start position of the block
+     * @param view view
+     * @param exclusive true to latch exclusively
+     * @return pinned and latched page, null in memory mapped mode where nothing changes the blocks
+     */
+    private BufferPool.Page latch(long startPos, NodeView view, boolean exclusive) {
+        BufferPool.Page page = pinView(startPos, view);
+        if (page != null) {
+            if (exclusive)
+                page.getLatch().writeLock().lock();
+            else
+                page.getLatch().readLock().lock();
+        }
+        return page;
+    }
+
+    /**
+     * release a page returned by latch
+     * @param page page, may be null
+     * @param exclusive whether it was latched exclusively
+     */
+    private void release(BufferPool.Page page, boolean exclusive) {
+        if (page == null)
+            return;
+        if (exclusive)
+            page.getLatch().writeLock().unlock();
         else
-            node = new InternalNode(keys, values);
+            page.getLatch().readLock().unlock();
+        bufferPool.unpin(page);
+    }
 
-        node.setParentNodeAddr(parentNodeAddr);
-        node.setStartPos(startPos);
+    private void releaseAll(List<BufferPool.Page> pages) {
+        for (BufferPool.Page page : pages)
+            release(page, true);
+        pages.clear();
+    }
 
-        return node;
+    /**
+     * point a view at a block, the block is pinned in the buffer pool or read from the mapping if the file is memory mapped
+     * @param startPos start position of the block
+     * @param view view
+     * @return pinned page, null in memory mapped mode
+     */
+    private BufferPool.Page pinView(long startPos, NodeView view) {
+        if (indexFile.isMemoryMapped()) {
+            ByteBuffer segment = indexFile.mappedSegment(startPos);
+            if (segment == null)
+                view.wrap(EMPTY_BLOCK, 0, startPos); // past the end of file, same as reading zeros
+            else
+                view.wrap(segment, IndexFile.segmentOffset(startPos), startPos);
+            return null;
+        }
 
+        BufferPool.Page page = bufferPool.pin(startPos, pageLoader);
+        view.wrap(page.getBuffer(), 0, startPos);
+        return page;
     }
 
     /**
-     * if root is null, retrieve root node from the disk
-     * @param indexFile index file
+     * keys are stored at their own length, but a node must still have room for a few of the longest keys
+     * @param key key to insert
      */
-    private void setRoot(String indexFile) {
-        long rootAddr = FileUtil.getRootAddr(indexFile);
-        if (rootAddr != 0L)
-            root = retrieveNodeFromDisk(indexFile, rootAddr);
+    private void checkKey(byte[] key) {
+        if (key.length < 1 || key.length > maxKeySize)
+            throw new IllegalArgumentException("key must be 1 to " + maxKeySize + " bytes: " + key.length);
+    }
+
+    /**
+     * copy the keys and values a view points at into a node which can be modified
+     * @param view view of the block
+     * @return Node instance
+     */
+    private Node decodeNode(NodeView view) {
+        int curKeyCount = view.keyCount(); // how many keys are currently in the node
+        int curValueCount = view.valueCount(); // how many values(pointers) are currently in the node
+        ArrayList<byte[]> keys = new ArrayList<>(curKeyCount + 1);
+        ArrayList<Long> values = new ArrayList<>(curValueCount + 1);
+        for (int i = 0; i < curKeyCount; i++)
+            keys.add(view.keyAt(i));
+        for (int i = 0; i < curValueCount; i++)
+            values.add(view.pointerAt(i));
+
+        Node node;
+        if (view.isLeaf())
+            node = new LeafNode(keys, values, view.nextLeaf());
+        else
+            node = new InternalNode(keys, values);
+
+        node.setStartPos(view.getStartPos());
+
+        return node;
     }
 
     /**
@@ -436,7 +1591,7 @@ public class BPlusTree {
      */
     private class InternalNode extends Node {
 
-        public InternalNode(String key, long leftChild, long rightChild) {
+        public InternalNode(byte[] key, long leftChild, long rightChild) {
             isLeafNode = false;
             keys = new ArrayList<>();
             keys.add(key);
@@ -445,27 +1600,24 @@ public class BPlusTree {
             values.add(rightChild);
         }
 
-        public InternalNode(List<String> keys, List<Long> values) {
+        public InternalNode(List<byte[]> keys, List<Long> values) {
             isLeafNode = false;
             this.keys = keys;
             this.values = values;
         }
 
-        public void insert(String key, Long leftChild, long rightChild) {
-            if (key.compareTo(keys.get(keys.size() - 1)) > 0) {
-                keys.add(key);
-                values.set(values.size() - 1, leftChild);
-                values.add(rightChild);
-            } else {
-                for (int i = 0; i < keys.size(); i++) {
-                    if (key.compareTo(keys.get(i)) <= 0) {
-                        keys.add(i, key);
-                        values.set(i, leftChild);
-                        values.add(i + 1, rightChild);
-                        break;
-                    }
-                }
-            }
+        /**
+         * insert the separator of a split child, the child pointer at the separator's position becomes
+         * the left half and the right half is added after it
+         * @param key separator, not less than any key of the left child and less than every key of the right child
+         * @param leftChild left child address
+         * @param rightChild right child address
+         */
+        public void insert(byte[] key, long leftChild, long rightChild) {
+            int i = KeyComparator.lowerBound(KeyComparator.binarySearch(keys, key));
+            keys.add(i, key);
+            values.set(i, leftChild);
+            values.add(i + 1, rightChild);
         }
 
         @Override
@@ -478,16 +1630,6 @@ public class BPlusTree {
             return values.size();
         }
 
-        @Override
-        public void setParentNodeAddr(long parentNodeAddr) {
-            this.parentNodeAddr = parentNodeAddr;
-        }
-
-        @Override
-        public long getParentNodeAddr() {
-            return parentNodeAddr;
-        }
-
         @Override
         public void setStartPos(long pos) {
             startPos = pos;
@@ -511,21 +1653,7 @@ public class BPlusTree {
             values = new ArrayList<>();
         }
 
-        public LeafNode(String firstKey, long firstValue) {
-            isLeafNode = true;
-            keys = new ArrayList<>();
-            keys.add(firstKey);
-            values = new ArrayList<>();
-            values.add(firstValue);
-        }
-
-        public LeafNode(ArrayList<String> keys, ArrayList<Long> values) {
-            isLeafNode = true;
-            this.keys = keys;
-            this.values = values;
-        }
-
-        public LeafNode(List<String> keys, List<Long> values, long nextLeaf) {
+        public LeafNode(List<byte[]> keys, List<Long> values, long nextLeaf) {
             isLeafNode = true;
             this.keys = keys;
             this.values = values;
@@ -546,16 +1674,6 @@ public class BPlusTree {
             return values.size();
         }
 
-        @Override
-        public void setParentNodeAddr(long addr) {
-            parentNodeAddr = addr;
-        }
-
-        @Override
-        public long getParentNodeAddr() {
-            return parentNodeAddr;
-        }
-
         @Override
         public void setStartPos(long pos) {
             startPos = pos;
@@ -572,50 +1690,41 @@ public class BPlusTree {
          * @param value value
          * @return true if insert succeeds, false if the key already exists, insert fails
          */
-        public boolean insert(String key, long value) {
-            if (keys.size() == 0 && values.size() == 0) {
-                keys.add(key);
-                values.add(value);
-                return true;
-            }
-
-            if (key.compareTo(keys.get(0)) < 0) {
-                keys.add(0, key);
-                values.add(0, value);
-            } else if (key.compareTo(keys.get(keys.size() - 1)) > 0) {
-                keys.add(key);
-                values.add(value);
-            } else {
-                // TODO after successfully insert an key-value pair, return true to jump out of the loop,
-                // TODO otherwise it will end up as an infinite loop, since after every insertion, keys.size() is growing, and i will always less than keys.size()
-                for (int i = 1; i < keys.size(); i++) {
-                    if (key.compareTo(keys.get(i)) < 0) {
-                        keys.add(i, key);
-                        values.add(i, value);
-                        return true;
-                    } else if (key.compareTo(keys.get(i)) == 0)
-                        return false;
-                }
-            }
+        public boolean insert(byte[] key, long value) {
+            int i = KeyComparator.binarySearch(keys, key);
+            if (i >= 0)
+                return false;
 
+            keys.add(-i - 1, key);
+            values.add(-i - 1, value);
             return true;
         }
 
     }
 
+    /**
+     * One internal level of a tree built by bulkLoad, the node being filled and the full node before it which is not written yet
+     */
+    private class BulkLevel {
+        private InternalNode open = new InternalNode(new ArrayList<>(), new ArrayList<>());
+        private List<byte[]> openMinKeys = new ArrayList<>(); // smallest key under every child of the open node
+        private byte[] openMaxKey;                             // largest key under the last child of the open node
+        private int openKeyBytes;                              // total length of the separators of the open node
+        private InternalNode pending;                          // full node not written yet, null if there is none
+        private List<byte[]> pendingMinKeys;
+        private byte[] pendingMaxKey;
+    }
+
     /**
      * Node, has two subclasses: InternalNode and LeafNode
      */
     private abstract class Node {
         protected boolean isLeafNode;
-        protected long parentNodeAddr;
         protected long startPos;
-        protected List<String> keys;
+        protected List<byte[]> keys;
         protected List<Long> values;
         public abstract int getKeysSize();
         public abstract int getValueSize();
-        public abstract void setParentNodeAddr(long addr);
-        public abstract long getParentNodeAddr();
         public abstract void setStartPos(long pos);
         public abstract long getStartPos();
     }
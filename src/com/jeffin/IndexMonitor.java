@@ -0,0 +1,152 @@
+package com.jeffin;
+
+import com.jeffin.metrics.IndexMetrics;
+import com.jeffin.metrics.LatencyHistogram;
+import com.jeffin.metrics.MetricsSnapshot;
+import com.jeffin.storage.BufferPool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: exposes the metrics of an IndexOperation through JMX, so jconsole or a JMX exporter can read them
+ *        from the platform MBean server. attributes are read from the live counters when they are asked for,
+ *        nothing is collected in the background
+ */
+public class IndexMonitor implements IndexMonitorMXBean {
+    public static final String DOMAIN = "com.jeffin";
+
+    private final IndexOperation operation;
+    private final IndexMetrics metrics;
+
+    public IndexMonitor(IndexOperation operation) {
+        this.operation = operation;
+        this.metrics = operation.getMetrics();
+    }
+
+    /**
+     * register the metrics of an IndexOperation with the platform MBean server
+     * @param operation IndexOperation
+     * @param name name of the MBean, e.g. the index file name
+     * @return name it is registered under, pass it to unregister
+     */
+    public static ObjectName register(IndexOperation operation, String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=Index,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new IndexMonitor(operation), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("failed to register metrics of " + name, e);
+        }
+    }
+
+    /**
+     * @param objectName name returned by register
+     */
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("failed to unregister " + objectName, e);
+        }
+    }
+
+    @Override
+    public String getIndexFile() {
+        String fileName = operation.getIndexFileName();
+        return fileName == null ? "" : fileName;
+    }
+
+    @Override
+    public long getBlockReadCount() {
+        return metrics.getBlockReadCount();
+    }
+
+    @Override
+    public long getBlockWriteCount() {
+        return metrics.getBlockWriteCount();
+    }
+
+    @Override
+    public long getRecordReadCount() {
+        return metrics.getRecordReadCount();
+    }
+
+    @Override
+    public long getRecordBytesRead() {
+        return metrics.getRecordBytesRead();
+    }
+
+    @Override
+    public long getSplitCount() {
+        return metrics.getSplitCount();
+    }
+
+    @Override
+    public long getNewRootCount() {
+        return metrics.getNewRootCount();
+    }
+
+    @Override
+    public long getMergeCount() {
+        return metrics.getMergeCount();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        BufferPool pool = operation.getBufferPool();
+        return pool == null ? 0L : pool.getHitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        BufferPool pool = operation.getBufferPool();
+        return pool == null ? 0L : pool.getMissCount();
+    }
+
+    @Override
+    public int getTreeHeight() {
+        return operation.getTreeHeight();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFindLatency() {
+        return metrics.getFindLatency().snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFindAllLatency() {
+        return metrics.getFindAllLatency().snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getInsertLatency() {
+        return metrics.getInsertLatency().snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getDeleteLatency() {
+        return metrics.getDeleteLatency().snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getListLatency() {
+        return metrics.getListLatency().snapshot();
+    }
+
+    @Override
+    public MetricsSnapshot snapshot() {
+        return operation.getMetricsSnapshot();
+    }
+
+    @Override
+    public TreeStatistics treeStatistics() {
+        return operation.getTreeStatistics();
+    }
+}
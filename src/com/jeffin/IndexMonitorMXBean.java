@@ -0,0 +1,58 @@
+package com.jeffin;
+
+import com.jeffin.metrics.LatencyHistogram;
+import com.jeffin.metrics.MetricsSnapshot;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: JMX management interface of an IndexOperation, registered as com.jeffin:type=Index,name=<name>.
+ *        counters only grow, latencies are in nanoseconds and cover every operation since the IndexOperation was created
+ */
+public interface IndexMonitorMXBean {
+    /**
+     * @return name of the open index file, empty if none is open
+     */
+    String getIndexFile();
+
+    long getBlockReadCount();
+
+    long getBlockWriteCount();
+
+    long getRecordReadCount();
+
+    long getRecordBytesRead();
+
+    long getSplitCount();
+
+    long getNewRootCount();
+
+    long getMergeCount();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    int getTreeHeight();
+
+    LatencyHistogram.Snapshot getFindLatency();
+
+    LatencyHistogram.Snapshot getFindAllLatency();
+
+    LatencyHistogram.Snapshot getInsertLatency();
+
+    LatencyHistogram.Snapshot getDeleteLatency();
+
+    LatencyHistogram.Snapshot getListLatency();
+
+    /**
+     * @return every counter and latency at one point in time
+     */
+    MetricsSnapshot snapshot();
+
+    /**
+     * walk the open tree, every block of the index is read once
+     * @return node counts and page fill of the open tree
+     */
+    TreeStatistics treeStatistics();
+}
@@ -1,121 +1,352 @@
 package com.jeffin;
 
+import com.jeffin.metrics.IndexMetrics;
+import com.jeffin.metrics.MetricsSnapshot;
+import com.jeffin.storage.BufferPool;
+import com.jeffin.storage.EvictionPolicy;
+import com.jeffin.storage.IndexFile;
+import com.jeffin.storage.RecordReader;
+import com.jeffin.storage.WriteAheadLog;
 import com.jeffin.util.DataTypeConvertUtil;
+import com.jeffin.util.ExternalSorter;
 import com.jeffin.util.FileUtil;
-import com.jeffin.util.StringUtil;
+import com.jeffin.util.KeyUtil;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 /**
  * Author: baojianfeng
  * Date: 2017-11-06
  * Usage: index operations implementation,
- *        this class can create a new index file, insert a new record, find a record and list the sequential records starting from a specific key
+ *        this class can create a new index file, insert a new record, delete a record, find a record and list the sequential records starting from a specific key.
+ *        the index file and the txt file are opened once and kept open until close() or until another file is used.
+ *        find, list, insert and delete may be called from several threads on the same index file, finds and lists run in parallel,
+ *        also while the index file is compacted
  */
-public class IndexOperation {
-    private static final int INITIAL_ROOT_BLOCK_OFFSET = 1024;
-    private static final int INITIAL_ALLOCATED_SPACE_OFFSET = 2048;
-    private int keySize;
-    private BPlusTree bPlusTree;
+public class IndexOperation implements Closeable {
+    public static final double DEFAULT_FILL_FACTOR = 0.9; // leave some room in every node for later inserts
+    public static final long DEFAULT_SORT_MEMORY = 64L * 1024 * 1024; // 64MB of key-record pairs are sorted in memory
+    private static final int SCAN_BATCH_SIZE = 256; // records read together by scanRecords
+    private static final int KEY_LOCK_STRIPES = 64;  // inserts and deletes of keys hashing to different stripes change the tree in parallel
+    public static final String COMPACT_SUFFIX = ".compact"; // a compacted index file is built under this suffix and renamed over the index file
+    private int maxKeySize;        // longest key allowed, keys are stored at their own length
+    private boolean memoryMapped;   // read-only mode, index blocks are read from a memory mapping instead of the buffer pool
+    private final long cacheCapacity;
+    private final EvictionPolicy evictionPolicy;
+    private int dirtyPageThreshold; // dirty blocks a tree keeps before it flushes, 0 for half of the buffer pool
+    private BufferPool bufferPool;  // created for the page size of the first index file opened, replaced if another file has another page size
+    private IndexFile indexFile;    // currently open index file, null before the first operation
+    private BPlusTree bPlusTree;     // b+ tree stored in indexFile
+    private WriteAheadLog writeAheadLog; // log of indexFile, null in memory mapped mode
+    private RecordReader recordReader; // reads records of the currently open txt file
+    private final Object appendLock = new Object(); // inserts and deletes are logged and applied to the txt file one at a time
+    private final Object[] keyLocks = new Object[KEY_LOCK_STRIPES]; // inserts and deletes of one key check, log and change the tree one at a time
+    private final ReentrantReadWriteLock compactionLock = new ReentrantReadWriteLock(); // shared by inserts and deletes, exclusive while compacting
+    private final Map<BPlusTree, Integer> readers = new IdentityHashMap<>(); // finds, lists and scans running on every tree
+    private final Map<BPlusTree, IndexFile> retiredFiles = new IdentityHashMap<>(); // replaced by compaction, kept open until their last reader ends
+    private final IndexMetrics metrics = new IndexMetrics(); // counts and latencies of every index file this object opens
+
+    /**
+     * IndexOperation constructor, index blocks are cached in a default sized LRU buffer pool
+     * @param maxKeySize longest key allowed in bytes
+     */
+    public IndexOperation(int maxKeySize) {
+        this(maxKeySize, BPlusTree.DEFAULT_CACHE_CAPACITY, EvictionPolicy.LRU);
+    }
+
+    /**
+     * IndexOperation constructor
+     * @param maxKeySize longest key allowed in bytes
+     * @param cacheCapacity how many bytes of index blocks can be cached in memory
+     * @param evictionPolicy how to choose the cached block to drop when the cache is full
+     */
+    public IndexOperation(int maxKeySize, long cacheCapacity, EvictionPolicy evictionPolicy) {
+        this.maxKeySize = maxKeySize;
+        this.cacheCapacity = cacheCapacity;
+        this.evictionPolicy = evictionPolicy;
+        for (int i = 0; i < keyLocks.length; i++)
+            keyLocks[i] = new Object();
+    }
 
     /**
      * IndexOperation constructor
-     * @param keySize key size
+     * @param maxKeySize longest key allowed in bytes
+     * @param memoryMapped true to open index files read-only and serve find and list from a memory mapping,
+     *                     the OS page cache then holds hot blocks. create and insert are not allowed in this mode.
+     *                     nodes are decoded from the mapping without any lock, so no other process may write an index file
+     *                     while it is mapped, a lookup could otherwise read a half written node
+     */
+    public IndexOperation(int maxKeySize, boolean memoryMapped) {
+        this(maxKeySize);
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * open an index file ahead of the first operation on it, a crashed index file is recovered here
+     * @param indexFileName index file name
      */
-    public IndexOperation(int keySize) {
-        this.keySize = keySize;
+    public void open(String indexFileName) {
+        bPlusTree(indexFileName);
+    }
+
+    /**
+     * @param indexFileName index file name
+     * @return true if the index file is the currently open one
+     */
+    public synchronized boolean isOpen(String indexFileName) {
+        return indexFile != null && indexFile.getFileName().equals(indexFileName);
+    }
+
+    /**
+     * get the b+ tree stored in an index file, the file is opened if it isn't the currently open one
+     * @param indexFileName index file name
+     * @return b+ tree
+     */
+    private synchronized BPlusTree bPlusTree(String indexFileName) {
+        if (indexFile != null && indexFile.getFileName().equals(indexFileName))
+            return bPlusTree;
+
+        closeIndexFile();
+        try {
+            indexFile = new IndexFile(indexFileName, memoryMapped);
+            if (!memoryMapped)
+                writeAheadLog = new WriteAheadLog(indexFileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to open index file " + indexFileName, e);
+        }
         bPlusTreeInit();
+        if (writeAheadLog != null) {
+            bPlusTree.setWriteAheadLog(writeAheadLog);
+            recover();
+        }
+
+        return bPlusTree;
+    }
+
+    /**
+     * get the b+ tree of an index file for a find, list or scan and count the caller as one of its readers,
+     * every acquire must be followed by a release of the returned tree
+     * @param indexFileName index file name
+     * @return b+ tree
+     */
+    private synchronized BPlusTree acquire(String indexFileName) {
+        BPlusTree tree = bPlusTree(indexFileName);
+        readers.merge(tree, 1, Integer::sum);
+        return tree;
+    }
+
+    /**
+     * end a read on a tree, a tree replaced by compaction closes its index file when its last reader ends
+     * @param tree tree returned by acquire
+     */
+    private void release(BPlusTree tree) {
+        IndexFile retired = null;
+        synchronized (this) {
+            Integer count = readers.get(tree);
+            if (count == null)
+                return; // closed meanwhile
+            if (count > 1) {
+                readers.put(tree, count - 1);
+            } else {
+                readers.remove(tree);
+                retired = retiredFiles.remove(tree);
+            }
+        }
+        closeRetired(retired);
+    }
+
+    /**
+     * close an index file replaced by compaction, nothing reads it any more
+     * @param retired index file, may be null
+     */
+    private static void closeRetired(IndexFile retired) {
+        if (retired == null)
+            return;
+        try {
+            retired.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * bring the index file back to a consistent state after a crash: block images of the last complete checkpoint
+     * are written again, then the inserts and deletes logged after it are redone in log order. redoing is safe if some of it
+     * already happened, the record bytes are written at the same position again, a key which is already indexed is not inserted
+     * twice and deleting a key which is gone does nothing. the redone changes stay in the buffer pool however many blocks
+     * they dirty and are checkpointed once at the end, the log is only emptied when all of them are in a checkpoint
+     */
+    private void recover() {
+        bPlusTree.setRecovering(true);
+        try {
+            replay();
+        } finally {
+            bPlusTree.setRecovering(false);
+        }
+        bPlusTree.flush(); // checkpoint the recovered state, which also empties the log
+    }
+
+    /**
+     * pass the content of the log to the index file and the tree
+     */
+    private void replay() {
+        writeAheadLog.replay(new WriteAheadLog.Replayer() {
+            @Override
+            public void page(long pageAddr, ByteBuffer page) {
+                indexFile.write(page, pageAddr);
+            }
+
+            @Override
+            public void checkpointEnd(long rootAddr, long spaceOffset, long freeListHead) {
+                indexFile.setRootAddr(rootAddr);
+                indexFile.setCurrentSpaceOffset(spaceOffset);
+                indexFile.setFreeListHead(freeListHead);
+                indexFile.flush();
+                indexFile.force();
+            }
+
+            @Override
+            public void insert(WriteAheadLog.InsertRecord record) {
+                if (record.getData().length > 0)
+                    FileUtil.writeDataIntoFile(record.getDataFile(), record.getData(), record.getDataOffset());
+                bPlusTree.insert(record.getKey(), record.getValue());
+            }
+
+            @Override
+            public void delete(WriteAheadLog.DeleteRecord record) {
+                FileUtil.writeDataIntoFile(record.getDataFile(), record.getData(), record.getDataOffset());
+                bPlusTree.delete(record.getKey());
+            }
+        });
+    }
+
+    /**
+     * get the record reader of a txt file, the file is opened if it isn't the currently open one
+     * @param txtFile txt file name
+     * @return record reader
+     */
+    private synchronized RecordReader recordReader(String txtFile) {
+        String path = System.getProperty("user.dir") + "/" + txtFile;
+        if (recordReader != null && recordReader.getFileName().equals(path))
+            return recordReader;
+
+        closeRecordReader();
+        try {
+            recordReader = new RecordReader(path, metrics);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to open txt file " + txtFile, e);
+        }
+
+        return recordReader;
     }
 
     /**
      * init b+ tree
      */
     private void bPlusTreeInit() {
-        // calculate maximum number of tree pointers and leaf node key-pointer pairs
-        int m = calMaxBranches(1024, keySize);
-        int l = calMaxLeaves(1024, keySize);
+        int pageSize = indexFile.getPageSize();
+        if (bufferPool == null || bufferPool.getPageSize() != pageSize)
+            bufferPool = new BufferPool(cacheCapacity, pageSize, evictionPolicy);
 
-        bPlusTree = new BPlusTree(m, l, keySize);
+        bPlusTree = new BPlusTree(indexFile, maxKeySize, bufferPool);
+        bPlusTree.setMetrics(metrics);
+        if (dirtyPageThreshold > 0)
+            bPlusTree.setDirtyPageThreshold(dirtyPageThreshold);
     }
 
     /**
-     * create an index file for the source file
+     * set how many modified blocks are kept in memory before they are flushed, for the open tree and every tree opened later.
+     * by default half of the buffer pool may be dirty
+     * @param dirtyPageThreshold number of dirty blocks, positive
      */
-    public void createIndexFile(String sourceFile, String desFile) {
-        // create index file header
-        byte[] indexFileFirstBytes = new byte[256];
-        byte[] sFileBytes = sourceFile.getBytes();
-        for (int i = 0; i < sFileBytes.length; i++)
-            indexFileFirstBytes[i] = sFileBytes[i];
-        byte[] keySizeBytes = DataTypeConvertUtil.longToBytes((long) keySize);
-        byte[] initialRootAddr = DataTypeConvertUtil.longToBytes((long) INITIAL_ROOT_BLOCK_OFFSET);
-        byte[] initialAllocatedSpaceOffset = DataTypeConvertUtil.longToBytes((long) INITIAL_ALLOCATED_SPACE_OFFSET);
-
-        List<byte[]> byteArrays = new ArrayList<>();
-        byteArrays.add(indexFileFirstBytes);
-        byteArrays.add(keySizeBytes);
-        byteArrays.add(initialRootAddr);
-        byteArrays.add(initialAllocatedSpaceOffset);
+    public synchronized void setDirtyPageThreshold(int dirtyPageThreshold) {
+        if (dirtyPageThreshold <= 0)
+            throw new IllegalArgumentException("dirty page threshold must be positive: " + dirtyPageThreshold);
+        this.dirtyPageThreshold = dirtyPageThreshold;
+        if (bPlusTree != null)
+            bPlusTree.setDirtyPageThreshold(dirtyPageThreshold);
+    }
 
-        FileUtil.deleteFile(System.getProperty("user.dir") + "/" + desFile);
+    /**
+     * @return buffer pool caching index blocks, exposes cache hit and miss counters, null before an index file is opened
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
 
-        // write file header into index file
-        byte[] headBlock = combineByteArrays(byteArrays);
-        FileUtil.writeDataIntoFile(desFile, headBlock, (long) 0);
-
-        Map<String, Long> keyRecordMap = FileUtil.getKeyValueMap(System.getProperty("user.dir") + "/" + sourceFile, keySize); // put sourceFile into the project directory
-        Set<Map.Entry<String, Long>> set = keyRecordMap.entrySet();
-        Iterator<Map.Entry<String, Long>> iterator = set.iterator();
-        // TODO whether need to deal with duplicate key, which will cause a fail insertion
-        while (iterator.hasNext()) {
-            Map.Entry<String, Long> entry = iterator.next();
-            bPlusTree.insert(entry.getKey(), entry.getValue(), desFile);
-        }
+    /**
+     * create an index file for the source file, nodes are filled up to the default fill factor
+     */
+    public void createIndexFile(String sourceFile, String desFile) {
+        createIndexFile(sourceFile, desFile, DEFAULT_FILL_FACTOR);
     }
 
     /**
-     * equation is: m * 8 + (m - 1) * keySize + 1 + 1 + 1 + 8 + 8 = blockSize
-     * first 1: represents true or false, second 1: represents the current number of key, third 1: represents the current number of values
-     * first 8: store the next leaf's address if exists, second 8: store parent node's address
-     * @param blockSize each block size
-     * @param keySize each key size
-     * @return how many pointers can be in one block
+     * create an index file for the source file, sorting with the default memory budget
+     * @param fillFactor how full every node is, between 0 and 1
      */
-    private int calMaxBranches(int blockSize, int keySize) {
-        return (blockSize - 19 + keySize) / (8 + keySize);
+    public void createIndexFile(String sourceFile, String desFile, double fillFactor) {
+        createIndexFile(sourceFile, desFile, fillFactor, DEFAULT_SORT_MEMORY);
     }
 
     /**
-     * equation is: l * (8 + keySize) + 1 + 1 + 1 + 8 + 8 = blockSize
-     * how to calculate:
-     * first 1: represents true or false, second 1: represents the current number of key, third 1: represents the current number of values
-     * first 8: store the next leaf's address if exists, second 8: store parent node's address
-     * (8 + keySize) is the length of a key-pointer pair
-     * @param blockSize each block size
-     * @param keySize each key size
-     * @return how many leaves can be in one block
+     * create an index file for the source file with the default page size
+     * @param fillFactor how full every node is, between 0 and 1
+     * @param sortMemory how many bytes of key-record pairs are buffered before a sorted run is spilled to disk
      */
-    private int calMaxLeaves(int blockSize, int keySize) {
-        return (blockSize - 19) / (8 + keySize);
+    public void createIndexFile(String sourceFile, String desFile, double fillFactor, long sortMemory) {
+        createIndexFile(sourceFile, desFile, fillFactor, sortMemory, IndexFile.DEFAULT_PAGE_SIZE);
     }
 
     /**
-     * combine an byte array list into a bigger byte array
-     * @param byteArrays byte array list
-     * @return a bigger byte array
+     * create an index file for the source file.
+     * key-record pairs are streamed into sorted runs on disk, the runs are merged straight into a bottom-up build,
+     * so memory use is bounded by sortMemory whatever the size of the source file
+     * @param fillFactor how full every node is, between 0 and 1
+     * @param sortMemory how many bytes of key-record pairs are buffered before a sorted run is spilled to disk
+     * @param pageSize size of every block, a power of 2 from 1KB to 64KB. larger pages hold more keys per node,
+     *                 so the tree is shallower and a lookup reads fewer blocks
      */
-    private byte[] combineByteArrays(List<byte[]> byteArrays) {
-        byte[] block = new byte[1024];
-        ByteBuffer buffer = ByteBuffer.wrap(block);
-        for (byte[] bytes : byteArrays) {
-            buffer.put(bytes);
+    public synchronized void createIndexFile(String sourceFile, String desFile, double fillFactor, long sortMemory, int pageSize) {
+        if (memoryMapped)
+            throw new IllegalStateException("index files are opened read-only");
+        if (!IndexFile.isValidPageSize(pageSize))
+            throw new IllegalArgumentException("page size must be a power of 2 between " + IndexFile.MIN_PAGE_SIZE + " and " + IndexFile.MAX_PAGE_SIZE + ": " + pageSize);
+        if (maxKeySize < 1 || maxKeySize > BPlusTree.maxKeySize(pageSize))
+            throw new IllegalArgumentException("key size must be between 1 and " + BPlusTree.maxKeySize(pageSize) + " for page size " + pageSize + ": " + maxKeySize);
+        if (indexFile != null && indexFile.getFileName().equals(desFile))
+            closeIndexFile(); // the open handle belongs to the file about to be deleted
+        FileUtil.deleteFile(System.getProperty("user.dir") + "/" + desFile);
+        FileUtil.deleteFile(System.getProperty("user.dir") + "/" + desFile + WriteAheadLog.SUFFIX);
+
+        // create index file header, it takes the first page, the root starts in the second one
+        try (IndexFile file = new IndexFile(desFile)) {
+            file.writeHeader(sourceFile, maxKeySize, pageSize, pageSize, 2L * pageSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to create index file " + desFile, e);
         }
+        BPlusTree tree = bPlusTree(desFile);
 
-        return block;
+        // run files are put next to the index file, duplicate keys keep the last record
+        File tempDir = new File(System.getProperty("user.dir") + "/" + desFile).getAbsoluteFile().getParentFile();
+        try (ExternalSorter sorter = new ExternalSorter(sortMemory, tempDir)) {
+            FileUtil.readKeyRecords(System.getProperty("user.dir") + "/" + sourceFile, maxKeySize, sorter::add); // put sourceFile into the project directory
+            sorter.finish();
+            tree.bulkLoad(sorter.iterator(), fillFactor);
+        }
     }
 
-
     /**
      * find a record according to the given key
      * @param key key
@@ -123,20 +354,76 @@ public class IndexOperation {
      * @return record related information if the record exists, otherwise return message "key was not found"
      */
     public String findRecordByKey(String key, String indexFile, String txtFile) {
-        String modifiedKey = StringUtil.modifyKeyStr(key, keySize);
-        long recordAddr = bPlusTree.find(modifiedKey, indexFile);
-        if (recordAddr == -1L) {
-            return "key not found";
+        long start = System.nanoTime();
+        try {
+            byte[] keyBytes = KeyUtil.toKey(key);
+            BPlusTree tree = acquire(indexFile);
+            long recordAddr;
+            try {
+                recordAddr = tree.find(keyBytes);
+            } finally {
+                release(tree);
+            }
+            if (recordAddr == -1L) {
+                return "key not found";
+            }
+            int recordAddrInt = (int) recordAddr;
+            String record = recordReader(txtFile).read(recordAddr);
+            if (isDeleted(record))
+                return "key not found"; // deleted after the key was found
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("At ");
+            sb.append(recordAddrInt);
+            sb.append(", record: ");
+            sb.append(record);
+            return sb.toString();
+        } finally {
+            metrics.getFindLatency().recordSince(start);
         }
-        int recordAddrInt = (int) recordAddr;
-        String record = FileUtil.getRecordByPosition(System.getProperty("user.dir") + "/" + txtFile, recordAddr);
+    }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("At ");
-        sb.append(recordAddrInt);
-        sb.append(", record: ");
-        sb.append(record);
-        return sb.toString();
+    /**
+     * find the records of many keys, the tree is walked once for the sorted keys and the records are read
+     * in file order, records lying close together with one read
+     * @param keys keys
+     * @param indexFile index file name
+     * @param txtFile txt file name
+     * @return result of every key in iteration order, the same text findRecordByKey returns
+     */
+    public List<String> findAll(Collection<String> keys, String indexFile, String txtFile) {
+        long start = System.nanoTime();
+        try {
+            List<byte[]> keyBytes = new ArrayList<>(keys.size());
+            for (String key : keys)
+                keyBytes.add(KeyUtil.toKey(key));
+            BPlusTree tree = acquire(indexFile);
+            List<Long> recordAddrs;
+            try {
+                recordAddrs = tree.findAll(keyBytes);
+            } finally {
+                release(tree);
+            }
+
+            List<Long> found = new ArrayList<>();
+            for (long recordAddr : recordAddrs) {
+                if (recordAddr != -1L)
+                    found.add(recordAddr);
+            }
+            Iterator<String> records = recordReader(txtFile).readAll(found).iterator();
+
+            List<String> results = new ArrayList<>(recordAddrs.size());
+            for (long recordAddr : recordAddrs) {
+                String record = recordAddr == -1L ? null : records.next();
+                if (recordAddr == -1L || isDeleted(record))
+                    results.add("key not found");
+                else
+                    results.add("At " + (int) recordAddr + ", record: " + record);
+            }
+            return results;
+        } finally {
+            metrics.getFindAllLatency().recordSince(start);
+        }
     }
 
     /**
@@ -146,58 +433,618 @@ public class IndexOperation {
      * @param txtFile txtFile where the record need to be inserted
      * @param indexFile indexFile where the index for the record should be created
      * @return message information about whether the insertion succeeds
+     * @throws UncheckedIOException if the record can't be written into txtFile, the key is not inserted then
+     * @throws IllegalStateException if the tree refuses a key found missing under its lock, the index was changed around IndexOperation
      */
     public String insertNewRecord(String key, String value, String txtFile, String indexFile) {
-        String insertResult = "";
-        String modifiedKey = StringUtil.modifyKeyStr(key, keySize);
-        long recordAddr = bPlusTree.find(modifiedKey, indexFile);
-        // if key not found, insert record into txtFile and insert key-value pair into indexFile
-        if (recordAddr == -1L) {
-            long currentTxtFileSize = FileUtil.getFileSize(System.getProperty("user.dir") + "/" + txtFile);
-            // First: add new record into txt file
-            if (currentTxtFileSize != 0L) {
-                String insertRecord = "\n" + key + " " + value;  // add '\n' to the record when inserting it into txt file
-                byte[] recordData = insertRecord.getBytes();
-                FileUtil.writeDataIntoFile(txtFile, recordData, currentTxtFileSize);
+        if (memoryMapped)
+            return "Index file is opened read-only";
+
+        byte[] keyBytes = KeyUtil.toKey(key);
+        if (!KeyUtil.isValidKey(keyBytes, maxKeySize))
+            return "Key must be 1 to " + maxKeySize + " bytes without blanks";
+        long start = System.nanoTime();
+        compactionLock.readLock().lock(); // the index file can't be swapped by a compaction meanwhile
+        try {
+            BPlusTree tree = bPlusTree(indexFile);
+            WriteAheadLog log = writeAheadLog;
+            long lsn;
+            long recordStartPosition;
+            // no checkpoint can run between logging and inserting. operations on one key keep their log order,
+            // only logging and appending are serialised, the tree is changed by several inserts at once
+            tree.beginOperation();
+            try {
+                synchronized (keyLock(keyBytes)) {
+                    // if key not found, insert record into txtFile and insert key-value pair into indexFile
+                    if (tree.find(keyBytes) != -1L)
+                        return "Key already exists";
+
+                    String txtPath = System.getProperty("user.dir") + "/" + txtFile;
+                    synchronized (appendLock) {
+                        long currentTxtFileSize = FileUtil.getFileSize(txtPath);
+                        byte[] recordData = new byte[0];
+                        if (currentTxtFileSize != 0L) {
+                            String insertRecord = "\n" + key + " " + value;  // add '\n' to the record when inserting it into txt file
+                            recordData = insertRecord.getBytes(StandardCharsets.UTF_8);
+                        }
+                        recordStartPosition = currentTxtFileSize + 1; // 1 is because of the position occupied by '\n'
+
+                        // the insert is logged before anything is changed, so it can be redone after a crash
+                        lsn = log.logInsert(txtPath, currentTxtFileSize, recordData, keyBytes, recordStartPosition);
+
+                        // First: add new record into txt file
+                        if (recordData.length > 0)
+                            writeLogged(log, txtPath, recordData, currentTxtFileSize);
+                    }
+
+                    // Second: insert new key-value pair into bPlusTree. the key lock is held since the key was found missing,
+                    // nothing else can have inserted it, replaying the logged insert would do nothing either
+                    if (!tree.insert(keyBytes, recordStartPosition))
+                        throw new IllegalStateException("key " + key + " was inserted into " + indexFile + " while its lock was held");
+                }
+            } finally {
+                tree.endOperation();
             }
 
-            // Second: insert new key-value pair into bPlusTree
-            long recordStartPosition = currentTxtFileSize + 1; // 1 is because of the position occupied by '\n'
-            if (bPlusTree.insert(modifiedKey, recordStartPosition, indexFile))
-                insertResult = "insert succeeded and the record position is: " + (int) recordStartPosition;
-        } else {
-            insertResult = "Key already exists";
+            log.commit(lsn); // durable once the log is synced, outside the lock so concurrent inserts share one sync
+            return "insert succeeded and the record position is: " + (int) recordStartPosition;
+        } finally {
+            compactionLock.readLock().unlock();
+            metrics.getInsertLatency().recordSince(start);
         }
+    }
+
+    /**
+     * insert a batch of new records into txtFile and their keys into the index, like insertNewRecord for every pair in order,
+     * but the records are appended with one write, the keys go into the tree with one insertAll and the batch waits for one log sync.
+     * every new pair is logged as its own insert, a key already indexed or coming earlier in the batch is skipped
+     * @param keys keys
+     * @param values values, in the order of keys
+     * @param txtFile txt file the records are appended to
+     * @param indexFile index file the keys are inserted into
+     * @return result of every key in the order of keys
+     * @throws IllegalArgumentException if a key is invalid, nothing is inserted then
+     * @throws IllegalStateException if the index file is opened read-only
+     * @throws UncheckedIOException if the records can't be written into txtFile, no key of the batch is inserted then
+     */
+    public List<InsertResult> insertNewRecords(List<String> keys, List<String> values, String txtFile, String indexFile) {
+        if (memoryMapped)
+            throw new IllegalStateException("Index file is opened read-only");
+        if (keys.size() != values.size())
+            throw new IllegalArgumentException("keys and values differ in size: " + keys.size() + ", " + values.size());
+
+        List<byte[]> keyBytes = new ArrayList<>(keys.size());
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String key : keys) {
+            byte[] bytes = KeyUtil.toKey(key);
+            if (!KeyUtil.isValidKey(bytes, maxKeySize))
+                throw new IllegalArgumentException("Key must be 1 to " + maxKeySize + " bytes without blanks: " + key);
+            keyBytes.add(bytes);
+            stripes.add(keyStripe(bytes));
+        }
+
+        compactionLock.readLock().lock(); // the index file can't be swapped by a compaction meanwhile
+        try {
+            BPlusTree tree = bPlusTree(indexFile);
+            WriteAheadLog log = writeAheadLog;
+            InsertResult[] results = new InsertResult[keys.size()];
+            long[] lsn = {0L};
+            tree.beginOperation();
+            try {
+                // every key of the batch stays locked from its duplicate check until it is in the tree, like in insertNewRecord
+                withKeyLocks(stripes.stream().mapToInt(Integer::intValue).toArray(), 0, () -> {
+                    List<Integer> newPairs = new ArrayList<>();
+                    Set<ByteBuffer> seen = new HashSet<>();
+                    for (int i = 0; i < keys.size(); i++) {
+                        boolean isNew = seen.add(ByteBuffer.wrap(keyBytes.get(i))) && tree.find(keyBytes.get(i)) == -1L;
+                        results[i] = isNew ? InsertResult.INSERTED : InsertResult.DUPLICATE;
+                        if (isNew)
+                            newPairs.add(i);
+                    }
+                    if (newPairs.isEmpty())
+                        return;
+
+                    String txtPath = System.getProperty("user.dir") + "/" + txtFile;
+                    List<byte[]> newKeys = new ArrayList<>(newPairs.size());
+                    List<Long> positions = new ArrayList<>(newPairs.size());
+                    synchronized (appendLock) {
+                        long txtFileSize = FileUtil.getFileSize(txtPath);
+                        long batchOffset = txtFileSize;
+                        ByteArrayOutputStream batchData = new ByteArrayOutputStream();
+                        for (int i : newPairs) {
+                            byte[] recordData = new byte[0];
+                            if (txtFileSize != 0L)
+                                recordData = ("\n" + keys.get(i) + " " + values.get(i)).getBytes(StandardCharsets.UTF_8);
+                            long recordStartPosition = txtFileSize + 1; // 1 is because of the position occupied by '\n'
+                            lsn[0] = log.logInsert(txtPath, txtFileSize, recordData, keyBytes.get(i), recordStartPosition);
+                            batchData.write(recordData, 0, recordData.length);
+                            txtFileSize += recordData.length;
+                            newKeys.add(keyBytes.get(i));
+                            positions.add(recordStartPosition);
+                        }
+
+                        if (batchData.size() > 0) {
+                            try {
+                                FileUtil.writeDataIntoFile(txtPath, batchData.toByteArray(), batchOffset);
+                            } catch (UncheckedIOException e) {
+                                long abortLsn = 0L;
+                                for (int i = 0; i < newPairs.size(); i++)
+                                    abortLsn = log.logAbort(); // every abort cancels the latest insert of the batch not cancelled yet
+                                log.commit(abortLsn);
+                                throw e;
+                            }
+                        }
+                    }
 
-        return insertResult;
+                    for (InsertResult result : tree.insertAll(newKeys, positions)) {
+                        if (result != InsertResult.INSERTED)
+                            throw new IllegalStateException("a key of the batch was inserted into " + indexFile + " while its lock was held");
+                    }
+                });
+            } finally {
+                tree.endOperation();
+            }
+
+            if (lsn[0] != 0L)
+                log.commit(lsn[0]); // durable once the log is synced, one sync for the whole batch
+            return Arrays.asList(results);
+        } finally {
+            compactionLock.readLock().unlock();
+        }
     }
 
     /**
-     * list the next n records starting from the given key
+     * delete the record of a key from txtFile and its key from the index. the record is overwritten with blanks,
+     * so the positions of the other records stay valid and creating the index again skips it
      * @param key key
+     * @param txtFile txt file holding the record
+     * @param indexFile index file holding the key
+     * @return message information about whether the deletion succeeds
+     * @throws UncheckedIOException if the record can't be overwritten in txtFile, the key is not deleted then
+     */
+    public String deleteRecord(String key, String txtFile, String indexFile) {
+        if (memoryMapped)
+            return "Index file is opened read-only";
+
+        byte[] keyBytes = KeyUtil.toKey(key);
+        long start = System.nanoTime();
+        compactionLock.readLock().lock(); // the index file can't be swapped by a compaction meanwhile
+        try {
+            BPlusTree tree = bPlusTree(indexFile);
+            RecordReader reader = recordReader(txtFile);
+            WriteAheadLog log = writeAheadLog;
+            long lsn;
+            long recordAddr;
+            // no checkpoint can run between logging and deleting, operations on one key keep their log order like in insertNewRecord
+            tree.beginOperation();
+            try {
+                synchronized (keyLock(keyBytes)) {
+                    recordAddr = tree.find(keyBytes);
+                    if (recordAddr == -1L)
+                        return "key not found";
+
+                    String txtPath = System.getProperty("user.dir") + "/" + txtFile;
+                    String record = reader.read(recordAddr);
+                    byte[] blanks = new byte[record == null ? 0 : record.getBytes(StandardCharsets.UTF_8).length];
+                    Arrays.fill(blanks, (byte) ' ');
+
+                    // the delete is logged before anything is changed, so it can be redone after a crash
+                    synchronized (appendLock) {
+                        lsn = log.logDelete(txtPath, recordAddr, blanks, keyBytes);
+                        writeLogged(log, txtPath, blanks, recordAddr);
+                    }
+                    tree.delete(keyBytes);
+                }
+            } finally {
+                tree.endOperation();
+            }
+
+            log.commit(lsn);
+            return "delete succeeded and the record at " + (int) recordAddr + " was removed";
+        } finally {
+            compactionLock.readLock().unlock();
+            metrics.getDeleteLatency().recordSince(start);
+        }
+    }
+
+    /**
+     * write the txt data of the insert or delete just logged, called with appendLock held.
+     * if the write fails the change is aborted in the log before the failure is thrown, so it isn't redone after a crash
+     * @param log log the change was appended to
+     * @throws UncheckedIOException if the data can't be written
+     */
+    private static void writeLogged(WriteAheadLog log, String txtPath, byte[] data, long offset) {
+        try {
+            FileUtil.writeDataIntoFile(txtPath, data, offset);
+        } catch (UncheckedIOException e) {
+            log.commit(log.logAbort());
+            throw e;
+        }
+    }
+
+    /**
+     * @param key key
+     * @return lock of the stripe the key hashes to
+     */
+    private Object keyLock(byte[] key) {
+        return keyLocks[keyStripe(key)];
+    }
+
+    /**
+     * @param key key
+     * @return index of the stripe the key hashes to
+     */
+    private int keyStripe(byte[] key) {
+        return (Arrays.hashCode(key) & 0x7FFFFFFF) % keyLocks.length;
+    }
+
+    /**
+     * run body holding the locks of several stripes, taken in ascending order so two batches never wait for each other
+     * @param stripes stripe indices, ascending without duplicates
+     * @param from first stripe in stripes not locked yet
+     * @param body runs once every stripe is locked
+     */
+    private void withKeyLocks(int[] stripes, int from, Runnable body) {
+        if (from == stripes.length) {
+            body.run();
+            return;
+        }
+        synchronized (keyLocks[stripes[from]]) {
+            withKeyLocks(stripes, from + 1, body);
+        }
+    }
+
+    /**
+     * list the next n records starting from the given key
+     * @param key key, if it doesn't exist the records start from the next larger key
      * @param len next n records
      * @param indexFile index file name
-     * @return records information if the key exists, otherwise print the next larger key's record and give a message indicating the key was not found
+     * @return records in key order, one per line. records deleted while the list runs are left out
      */
     public String listSequentialRecords(String key, int len, String txtFile, String indexFile) {
-        String modifiedKey = StringUtil.modifyKeyStr(key, keySize);
-        // find all record positions and retrieve every record in txt file
-        List<Long> addrList = bPlusTree.traverseLeafNodes(modifiedKey, len, indexFile);
-        if (addrList == null)
-            return "Please create index file first"; // no root node, index file doesn't exist
-
-        StringBuilder sb = new StringBuilder();
-        for (long recordPosition : addrList) {
-            String record = FileUtil.getRecordByPosition(System.getProperty("user.dir") + "/" + txtFile, recordPosition);
-            sb.append(record);
-            sb.append("\n");
+        long start = System.nanoTime();
+        try {
+            byte[] keyBytes = KeyUtil.toKey(key);
+            // find all record positions and retrieve every record in txt file
+            BPlusTree tree = acquire(indexFile);
+            List<Long> addrList;
+            try {
+                addrList = tree.traverseLeafNodes(keyBytes, len);
+            } finally {
+                release(tree);
+            }
+            if (addrList == null)
+                return "Please create index file first"; // no root node, index file doesn't exist
+
+            // records are fetched together, so records lying next to each other are read with one sequential read
+            StringBuilder sb = new StringBuilder();
+            for (String record : recordReader(txtFile).readAll(addrList)) {
+                if (isDeleted(record))
+                    continue;
+                sb.append(record);
+                sb.append("\n");
+            }
+            return sb.toString();
+        } finally {
+            metrics.getListLatency().recordSince(start);
+        }
+    }
+
+    /**
+     * iterate over the records of a key range without materialising it, record positions are taken from the tree
+     * one batch at a time and every batch is read with readAll, so the iteration can be stopped at any point
+     * @param fromKey lower bound, null for no lower bound
+     * @param fromInclusive whether the record of fromKey is included
+     * @param toKey upper bound, null for no upper bound
+     * @param toInclusive whether the record of toKey is included
+     * @param reverse true to iterate from the upper bound down
+     * @param txtFile txt file name
+     * @param indexFile index file name
+     * @return records in key order, or in reverse key order. records deleted meanwhile are skipped.
+     *         a scan keeps an index file replaced by compaction open until it is read to its end or this IndexOperation is closed
+     */
+    public Iterator<String> scanRecords(String fromKey, boolean fromInclusive, String toKey, boolean toInclusive, boolean reverse,
+                                        String txtFile, String indexFile) {
+        BPlusTree tree = acquire(indexFile);
+        RangeCursor cursor;
+        RecordReader reader;
+        try {
+            cursor = tree.cursor(fromKey == null ? null : KeyUtil.toKey(fromKey), fromInclusive,
+                    toKey == null ? null : KeyUtil.toKey(toKey), toInclusive, reverse);
+            reader = recordReader(txtFile);
+        } catch (RuntimeException e) {
+            release(tree);
+            throw e;
+        }
+        return new Iterator<String>() {
+            private Iterator<String> batch = Collections.emptyIterator();
+            private boolean released;
+
+            @Override
+            public boolean hasNext() {
+                if (!batch.hasNext() && !released) {
+                    if (cursor.hasNext()) {
+                        List<Long> positions = new ArrayList<>(SCAN_BATCH_SIZE);
+                        while (positions.size() < SCAN_BATCH_SIZE && cursor.hasNext())
+                            positions.add(cursor.next().getValue());
+                        List<String> records = reader.readAll(positions);
+                        records.removeIf(IndexOperation::isDeleted);
+                        batch = records.iterator();
+                    } else {
+                        released = true;
+                        release(tree);
+                    }
+                }
+                return batch.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return batch.next();
+            }
+        };
+    }
+
+    /**
+     * stream the records of a key range. a parallel stream splits the range along internal nodes of the tree,
+     * every part scans its own leaves and reads its own records, and forEachOrdered or collect still see key order
+     * @param fromKey lower bound, null for no lower bound
+     * @param fromInclusive whether the record of fromKey is included
+     * @param toKey upper bound, null for no upper bound
+     * @param toInclusive whether the record of toKey is included
+     * @param parallel true for a parallel stream
+     * @param txtFile txt file name
+     * @param indexFile index file name
+     * @return records in key order, records deleted meanwhile are skipped. the stream keeps an index file
+     *         replaced by compaction open until the stream is closed or this IndexOperation is closed
+     */
+    public Stream<String> streamRecords(String fromKey, boolean fromInclusive, String toKey, boolean toInclusive, boolean parallel,
+                                        String txtFile, String indexFile) {
+        RecordReader reader = recordReader(txtFile);
+        BPlusTree tree = acquire(indexFile);
+        try {
+            return tree.stream(fromKey == null ? null : KeyUtil.toKey(fromKey), fromInclusive,
+                    toKey == null ? null : KeyUtil.toKey(toKey), toInclusive, parallel)
+                    .map(entry -> reader.read(entry.getValue()))
+                    .filter(record -> !isDeleted(record))
+                    .onClose(() -> release(tree));
+        } catch (RuntimeException e) {
+            release(tree);
+            throw e;
+        }
+    }
+
+    /**
+     * a record read after its key was taken from the tree may have been deleted meanwhile, the line is blank then
+     * @param record record read from the txt file
+     * @return whether the record has been deleted
+     */
+    private static boolean isDeleted(String record) {
+        return record != null && record.isBlank();
+    }
+
+    /**
+     * compact an index file with the default fill factor
+     * @param indexFile index file name
+     */
+    public void compactIndexFile(String indexFile) {
+        compactIndexFile(indexFile, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * rebuild an index file which random inserts and deletes have left with scattered, half empty leaves.
+     * the leaf chain is streamed in key order into a bottom-up build of a new file, so leaves are packed and follow
+     * each other on disk and a range scan reads the file sequentially. the new file is synced and renamed over the old one,
+     * then it replaces the open tree. inserts and deletes wait until the compaction ends, finds, lists and scans go on
+     * with the old file, which is closed when the last of them ends. a crash before the rename leaves the old file in use
+     * @param indexFile index file name
+     * @param fillFactor how full every node of the new file is, between 0 and 1
+     */
+    public void compactIndexFile(String indexFile, double fillFactor) {
+        if (memoryMapped)
+            throw new IllegalStateException("index files are opened read-only");
+
+        compactionLock.writeLock().lock();
+        try {
+            BPlusTree tree = bPlusTree(indexFile);
+            IndexFile oldFile;
+            synchronized (this) {
+                oldFile = this.indexFile;
+            }
+            tree.flush(); // the old file is complete on disk and the log is empty, nothing in it has to be redone on the new file
+
+            String compactName = indexFile + COMPACT_SUFFIX;
+            FileUtil.deleteFile(System.getProperty("user.dir") + "/" + compactName); // left behind by a crashed compaction
+            IndexFile compactFile;
+            try {
+                compactFile = new IndexFile(compactName);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to create index file " + compactName, e);
+            }
+
+            boolean swapped = false;
+            try {
+                int pageSize = oldFile.getPageSize();
+                compactFile.writeHeader(oldFile.getSourceFileName(), oldFile.getKeySize(), pageSize, pageSize, 2L * pageSize);
+                BufferPool compactPool = new BufferPool(cacheCapacity, pageSize, evictionPolicy); // the old pool still serves readers
+                BPlusTree compacted = new BPlusTree(compactFile, maxKeySize, compactPool);
+                compacted.setMetrics(metrics);
+                if (dirtyPageThreshold > 0)
+                    compacted.setDirtyPageThreshold(dirtyPageThreshold);
+                compacted.bulkLoad(tree.cursor(null, true, null, true, false), fillFactor);
+                compacted.flush();
+                compactFile.force();
+
+                synchronized (this) {
+                    if (this.indexFile != oldFile)
+                        throw new IllegalStateException("index file " + indexFile + " was replaced during compaction");
+                    compactFile.moveTo(indexFile);
+                    compacted.setWriteAheadLog(writeAheadLog);
+                    if (readers.containsKey(tree))
+                        retiredFiles.put(tree, oldFile);
+                    else
+                        closeRetired(oldFile);
+                    this.indexFile = compactFile;
+                    this.bufferPool = compactPool;
+                    this.bPlusTree = compacted;
+                    swapped = true;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to compact index file " + indexFile, e);
+            } finally {
+                if (!swapped) {
+                    try {
+                        compactFile.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    FileUtil.deleteFile(System.getProperty("user.dir") + "/" + compactName);
+                }
+            }
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return live counters and latency histograms of this object, they add up over every index file it opens
+     */
+    public IndexMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * copy the counters and latency percentiles, together with the height of the open tree and the buffer pool hits and misses
+     * @return snapshot, tree height and cache counts are 0 if no index file is open
+     */
+    public MetricsSnapshot getMetricsSnapshot() {
+        BufferPool pool;
+        synchronized (this) {
+            pool = bufferPool;
+        }
+        return new MetricsSnapshot(metrics, getTreeHeight(), pool == null ? 0L : pool.getHitCount(), pool == null ? 0L : pool.getMissCount());
+    }
+
+    /**
+     * @return levels of the open tree, found by walking down its leftmost path, 0 if no index file is open
+     */
+    public int getTreeHeight() {
+        BPlusTree tree;
+        synchronized (this) {
+            if (indexFile == null)
+                return 0;
+            tree = acquire(indexFile.getFileName());
+        }
+        try {
+            return tree.height();
+        } finally {
+            release(tree);
+        }
+    }
+
+    /**
+     * walk the open tree to count its nodes and measure how full its pages are, every block is read once
+     * @return statistics of the tree, all 0 if no index file is open
+     */
+    public TreeStatistics getTreeStatistics() {
+        BPlusTree tree;
+        synchronized (this) {
+            if (indexFile == null)
+                return new TreeStatistics(0, 0L, 0L, 0L, 0.0, 0.0);
+            tree = acquire(indexFile.getFileName());
+        }
+        try {
+            return tree.statistics();
+        } finally {
+            release(tree);
+        }
+    }
+
+    /**
+     * @return name of the open index file, null if none is open
+     */
+    public synchronized String getIndexFileName() {
+        return indexFile == null ? null : indexFile.getFileName();
+    }
+
+    /**
+     * write modified index blocks and the header back into the open index file
+     */
+    public void flush() {
+        if (bPlusTree != null)
+            bPlusTree.flush();
+    }
+
+    /**
+     * flush and close the index file if it is open
+     */
+    private synchronized void closeIndexFile() {
+        if (indexFile == null)
+            return;
+
+        try {
+            flush();
+            indexFile.close();
+            if (writeAheadLog != null)
+                writeAheadLog.close();
+            for (IndexFile retired : retiredFiles.values())
+                retired.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        retiredFiles.clear();
+        readers.clear();
+        indexFile = null;
+        writeAheadLog = null;
+        bPlusTree = null;
+    }
+
+    /**
+     * close the txt file if it is open
+     */
+    private synchronized void closeRecordReader() {
+        if (recordReader == null)
+            return;
+
+        try {
+            recordReader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return sb.toString();
+        recordReader = null;
+    }
+
+    @Override
+    public void close() {
+        closeIndexFile();
+        closeRecordReader();
+    }
+
+    /**
+     * reuse the IndexOperation of the previous command if it has the index file open, its cached tree is kept warm.
+     * the key size is only read from the header when the index file has to be opened
+     * @param current IndexOperation of the previous command, may be null
+     * @param indexFileName index file name
+     * @return IndexOperation for the index file
+     */
+    private static IndexOperation operationFor(IndexOperation current, String indexFileName) {
+        if (current != null && current.isOpen(indexFileName))
+            return current;
+        if (current != null)
+            current.close();
+
+        int keySize = 0;
+        if (FileUtil.isFileExisted(System.getProperty("user.dir") + "/" + indexFileName))
+            keySize = (int) DataTypeConvertUtil.bytesToLong(FileUtil.getDataBlock(indexFileName, 8, 256));
+        return new IndexOperation(keySize);
     }
 
     public static void main(String[] args) {
-        while (true) {
-            Scanner in = new Scanner(System.in);
+        Scanner in = new Scanner(System.in);
+        IndexOperation iOper = null; // kept open between commands on the same index file
+        while (in.hasNextLine()) {
             String str = in.nextLine();
 
             String sourceFileName = "CS6360Asg5TestData.txt";
@@ -210,18 +1057,22 @@ public class IndexOperation {
                     sourceFileName = varCreateArray[0];
                     String desFileName = varCreateArray[1];
                     String keySize = varCreateArray[2];
+                    double fillFactor = varCreateArray.length > 3 ? Double.valueOf(varCreateArray[3]) : DEFAULT_FILL_FACTOR;
+                    int pageSize = varCreateArray.length > 4 ? Integer.valueOf(varCreateArray[4]) : IndexFile.DEFAULT_PAGE_SIZE;
 
-                    IndexOperation iOper = new IndexOperation(Integer.valueOf(keySize));
-                    iOper.createIndexFile(sourceFileName, desFileName);
+                    if (iOper != null) {
+                        iOper.close(); // the index file may be the one about to be replaced
+                        iOper = null;
+                    }
+                    IndexOperation createOper = new IndexOperation(Integer.valueOf(keySize));
+                    createOper.createIndexFile(sourceFileName, desFileName, fillFactor, DEFAULT_SORT_MEMORY, pageSize);
+                    createOper.close();
                 } else if (commandStr[0].equalsIgnoreCase("find")) {
                     String[] varFindArray = commandStr[1].split(" ");
                     String indexFileName = varFindArray[0];
                     String key = varFindArray[1];
 
-                    int keySize = 0;
-                    if (FileUtil.isFileExisted(System.getProperty("user.dir") + "/" + indexFileName))
-                        keySize = (int) DataTypeConvertUtil.bytesToLong(FileUtil.getDataBlock(indexFileName, 8, 256));
-                    IndexOperation iOper = new IndexOperation(keySize);
+                    iOper = operationFor(iOper, indexFileName);
                     String findResult = iOper.findRecordByKey(key, indexFileName, sourceFileName);
                     System.out.println(findResult);
                 } else if (commandStr[0].equalsIgnoreCase("insert")) {
@@ -232,28 +1083,97 @@ public class IndexOperation {
                     String key = keyValueArray[0];
                     String value = keyValueArray[1];
 
-                    int keySize = 0;
-                    if (FileUtil.isFileExisted(System.getProperty("user.dir") + "/" + indexFileName))
-                        keySize = (int) DataTypeConvertUtil.bytesToLong(FileUtil.getDataBlock(indexFileName, 8, 256));
-                    IndexOperation iOper = new IndexOperation(keySize);
+                    iOper = operationFor(iOper, indexFileName);
                     String insertResult = iOper.insertNewRecord(key, value, sourceFileName, indexFileName);
                     System.out.println(insertResult);
+                } else if (commandStr[0].equalsIgnoreCase("insertall")) {
+                    // index -insertall <index file> <batch file>, the batch file holds one "key value" record per line
+                    String[] varInsertAllArray = commandStr[1].split(" ");
+                    String indexFileName = varInsertAllArray[0];
+                    List<String> keys = new ArrayList<>();
+                    List<String> values = new ArrayList<>();
+                    try {
+                        for (String line : Files.readAllLines(Paths.get(System.getProperty("user.dir"), varInsertAllArray[1]), StandardCharsets.UTF_8)) {
+                            if (line.trim().isEmpty())
+                                continue;
+                            String[] keyValueArray = line.split(" ", 2);
+                            keys.add(keyValueArray[0]);
+                            values.add(keyValueArray.length > 1 ? keyValueArray[1] : "");
+                        }
+                    } catch (IOException e) {
+                        System.out.println("failed to read batch file " + varInsertAllArray[1]);
+                        continue;
+                    }
+
+                    iOper = operationFor(iOper, indexFileName);
+                    List<InsertResult> results = iOper.insertNewRecords(keys, values, sourceFileName, indexFileName);
+                    int inserted = Collections.frequency(results, InsertResult.INSERTED);
+                    System.out.println("inserted " + inserted + " records, " + (results.size() - inserted) + " duplicate keys skipped");
+                } else if (commandStr[0].equalsIgnoreCase("delete")) {
+                    String[] varDeleteArray = commandStr[1].split(" ");
+                    String indexFileName = varDeleteArray[0];
+                    String key = varDeleteArray[1];
+
+                    iOper = operationFor(iOper, indexFileName);
+                    String deleteResult = iOper.deleteRecord(key, sourceFileName, indexFileName);
+                    System.out.println(deleteResult);
+                } else if (commandStr[0].equalsIgnoreCase("compact")) {
+                    // index -compact <index file> [fillFactor]
+                    String[] varCompactArray = commandStr[1].split(" ");
+                    String indexFileName = varCompactArray[0];
+                    double fillFactor = varCompactArray.length > 1 ? Double.valueOf(varCompactArray[1]) : DEFAULT_FILL_FACTOR;
+
+                    iOper = operationFor(iOper, indexFileName);
+                    iOper.compactIndexFile(indexFileName, fillFactor);
+                    System.out.println("compacted " + indexFileName);
+                } else if (commandStr[0].equalsIgnoreCase("stats")) {
+                    // index -stats <index file>, counters of the commands run on it so far and the shape of its tree
+                    String indexFileName = commandStr[1].trim();
+
+                    iOper = operationFor(iOper, indexFileName);
+                    iOper.open(indexFileName);
+                    System.out.println(iOper.getMetricsSnapshot());
+                    System.out.println(iOper.getTreeStatistics());
                 } else if (commandStr[0].equalsIgnoreCase("list")) {
                     String[] varListArray = commandStr[1].split(" ");
                     String indexFileName = varListArray[0];
                     String key = varListArray[1];
                     String count = varListArray[2];
 
-                    int keySize = 0;
-                    if (FileUtil.isFileExisted(System.getProperty("user.dir") + "/" + indexFileName))
-                        keySize = (int) DataTypeConvertUtil.bytesToLong(FileUtil.getDataBlock(indexFileName, 8, 256));
-                    IndexOperation iOper = new IndexOperation(keySize);
+                    iOper = operationFor(iOper, indexFileName);
                     String sequRecords = iOper.listSequentialRecords(key, Integer.valueOf(count), sourceFileName, indexFileName);
                     System.out.println(sequRecords);
+                } else if (commandStr[0].equalsIgnoreCase("serve")) {
+                    // index -serve <index file> <port> [worker threads], serves until the process is stopped
+                    String[] varServeArray = commandStr[1].split(" ");
+                    String indexFileName = varServeArray[0];
+                    int port = Integer.valueOf(varServeArray[1]);
+                    int workers = varServeArray.length > 2 ? Integer.valueOf(varServeArray[2]) : Runtime.getRuntime().availableProcessors();
+
+                    if (iOper != null) {
+                        iOper.close();
+                        iOper = null;
+                    }
+                    try {
+                        IndexServer server = new IndexServer(indexFileName, sourceFileName, port, workers);
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                            try {
+                                server.close();
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }));
+                        System.out.println("serving " + indexFileName + " on port " + server.getPort());
+                        server.serve();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
                 }
             } else
                 System.out.println("command invalid");
         }
 
+        if (iOper != null)
+            iOper.close();
     }
 }
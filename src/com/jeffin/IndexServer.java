@@ -0,0 +1,269 @@
+package com.jeffin;
+
+import com.jeffin.util.DataTypeConvertUtil;
+import com.jeffin.util.FileUtil;
+
+import javax.management.ObjectName;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: serve find, insert, list and delete requests of one index file on a loopback TCP port.
+ *        the index file is opened once, so a request costs a lookup in the cached tree instead of opening the file again.
+ *        requests of a connection are executed by a shared worker pool and may be pipelined,
+ *        responses are sent back in request order.
+ *        request frame: 4 bytes length of the rest, 4 bytes request id, 1 byte operation, then the arguments:
+ *          FIND key, INSERT key value, LIST key and 4 bytes count, DELETE key. a string is 2 bytes length and UTF-8 bytes.
+ *        response frame: 4 bytes length of the rest, 4 bytes request id, 1 byte status, 4 bytes length and UTF-8 text,
+ *          the text is what IndexOperation returns for the request, or the error message.
+ *        while it runs, the metrics of the index are registered with the platform MBean server as com.jeffin:type=Index,name="<index file>"
+ */
+public class IndexServer implements Closeable {
+    public static final byte FIND = 1;
+    public static final byte INSERT = 2;
+    public static final byte LIST = 3;
+    public static final byte DELETE = 4;
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+    private static final int MAX_FRAME = 1024 * 1024;   // a longer request is not a frame of this protocol
+    private static final int MAX_PIPELINE = 128;        // requests of a connection in flight before reading stops
+    private static final Future<byte[]> END = CompletableFuture.completedFuture(null); // no more responses on a connection
+
+    private final IndexOperation operation;
+    private final String indexFile;
+    private final String txtFile;
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet(); // open connections, closed with the server
+    private final ObjectName monitorName;
+
+    /**
+     * open an index file and bind the server, requests are accepted once serve is called
+     * @param indexFile index file name
+     * @param txtFile txt file holding the records
+     * @param port loopback port, 0 to pick a free one
+     * @param workerCount how many requests are executed at the same time
+     * @throws IOException if the port can't be bound
+     */
+    public IndexServer(String indexFile, String txtFile, int port, int workerCount) throws IOException {
+        if (!FileUtil.isFileExisted(System.getProperty("user.dir") + "/" + indexFile))
+            throw new IllegalArgumentException("index file doesn't exist: " + indexFile);
+
+        int keySize = (int) DataTypeConvertUtil.bytesToLong(FileUtil.getDataBlock(indexFile, 8, 256));
+        this.operation = new IndexOperation(keySize);
+        this.indexFile = indexFile;
+        this.txtFile = txtFile;
+        operation.open(indexFile); // recovers the index file now instead of on the first request
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.workers = Executors.newFixedThreadPool(workerCount);
+        this.monitorName = IndexMonitor.register(operation, indexFile);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * accept connections until close is called
+     */
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                return; // closed
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            try {
+                connections.execute(() -> handle(socket));
+            } catch (RejectedExecutionException e) {
+                // closed between accept and execute
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // the connection is dropped anyway
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * read requests of a connection and hand them to the workers, a second thread writes the responses in order
+     * @param socket connection
+     */
+    private void handle(Socket socket) {
+        BlockingQueue<Future<byte[]>> pending = new ArrayBlockingQueue<>(MAX_PIPELINE);
+        sockets.add(socket);
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            Future<?> writer = connections.submit(() -> writeResponses(pending, s, out));
+            try {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break; // the client closed the connection
+                    }
+                    if (length < 5 || length > MAX_FRAME)
+                        break;
+
+                    byte[] frame = new byte[length];
+                    in.readFully(frame);
+                    Future<byte[]> response;
+                    try {
+                        response = workers.submit(() -> execute(frame));
+                    } catch (RejectedExecutionException e) {
+                        // the server is closing, the request is answered with an error and the connection is closed
+                        pending.put(CompletableFuture.completedFuture(response(ByteBuffer.wrap(frame).getInt(), ERROR, "server is closing")));
+                        break;
+                    }
+                    pending.put(response);
+                }
+            } finally {
+                pending.put(END);
+                writer.get();
+            }
+        } catch (IOException | ExecutionException | RejectedExecutionException e) {
+            // the connection is dropped, other connections are not affected. the writer is rejected if the server is closing
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    /**
+     * write responses in the order their requests were read, the stream is flushed when no further response is ready.
+     * if the client can't be written to, the connection is closed and the remaining responses are dropped
+     * @param pending responses in request order, ended by END
+     * @param socket connection
+     * @param out output stream of the connection
+     */
+    private void writeResponses(BlockingQueue<Future<byte[]>> pending, Socket socket, DataOutputStream out) {
+        boolean broken = false;
+        try {
+            while (true) {
+                Future<byte[]> response = pending.take();
+                if (response == END)
+                    break;
+                if (broken)
+                    continue; // keep taking so the reading thread never blocks on a full queue
+
+                try {
+                    out.write(response.get());
+                    if (pending.isEmpty())
+                        out.flush();
+                } catch (IOException | ExecutionException e) {
+                    broken = true;
+                    socket.close(); // the reading thread stops too
+                }
+            }
+            if (!broken)
+                out.flush();
+        } catch (IOException e) {
+            // the connection is gone
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * execute one request
+     * @param frame request frame without its length
+     * @return response frame
+     */
+    private byte[] execute(byte[] frame) {
+        ByteBuffer request = ByteBuffer.wrap(frame);
+        int id = request.getInt();
+        byte op = request.get();
+        try {
+            String key = readString(request);
+            String result;
+            if (op == FIND) {
+                result = operation.findRecordByKey(key, indexFile, txtFile);
+            } else if (op == INSERT) {
+                result = operation.insertNewRecord(key, readString(request), txtFile, indexFile);
+            } else if (op == LIST) {
+                result = operation.listSequentialRecords(key, request.getInt(), txtFile, indexFile);
+            } else if (op == DELETE) {
+                result = operation.deleteRecord(key, txtFile, indexFile);
+            } else {
+                return response(id, ERROR, "unknown operation " + op);
+            }
+            return response(id, OK, result);
+        } catch (BufferUnderflowException e) {
+            return response(id, ERROR, "request is too short");
+        } catch (RuntimeException e) {
+            return response(id, ERROR, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static String readString(ByteBuffer request) {
+        byte[] bytes = new byte[request.getShort() & 0xFFFF];
+        request.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] response(int id, byte status, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer response = ByteBuffer.allocate(4 + 4 + 1 + 4 + bytes.length);
+        response.putInt(4 + 1 + 4 + bytes.length);
+        response.putInt(id);
+        response.put(status);
+        response.putInt(bytes.length);
+        response.put(bytes);
+        return response.array();
+    }
+
+    /**
+     * stop accepting connections, wait for running requests and close the index file
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets)
+            socket.close(); // a connection blocked reading ends, its requests already read are still answered
+        connections.shutdown();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IndexMonitor.unregister(monitorName);
+        operation.close();
+    }
+}
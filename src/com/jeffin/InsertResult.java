@@ -0,0 +1,18 @@
+package com.jeffin;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: outcome of one key of a batch insert
+ */
+public enum InsertResult {
+    /**
+     * the key was inserted
+     */
+    INSERTED,
+
+    /**
+     * the key was already in the index, or came earlier in the same batch, nothing was inserted
+     */
+    DUPLICATE
+}
@@ -0,0 +1,90 @@
+package com.jeffin;
+
+import com.jeffin.util.KeyComparator;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: spliterator over the key-value pairs of a key range.
+ *        a split cuts the range at a separator of the highest internal node whose children divide it,
+ *        the first part is handed out and this spliterator keeps the rest, so parts are disjoint subtrees
+ *        which parallel streams and fork-join tasks scan at the same time, each with its own leaf reads.
+ *        pairs are read through a RangeCursor once traversal starts, after that the spliterator no longer splits
+ */
+public class KeyRangeSpliterator implements Spliterator<Map.Entry<byte[], Long>> {
+    private static final Comparator<Map.Entry<byte[], Long>> KEY_ORDER = (a, b) -> KeyComparator.compare(a.getKey(), b.getKey());
+
+    private final BPlusTree tree;
+    private byte[] from;
+    private boolean fromInclusive;
+    private final byte[] to;
+    private final boolean toInclusive;
+    private long estimate;          // estimated number of pairs in the range
+    private RangeCursor cursor;     // null until traversal starts
+
+    KeyRangeSpliterator(BPlusTree tree, byte[] from, boolean fromInclusive, byte[] to, boolean toInclusive, long estimate) {
+        this.tree = tree;
+        this.from = from;
+        this.fromInclusive = fromInclusive;
+        this.to = to;
+        this.toInclusive = toInclusive;
+        this.estimate = estimate;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<byte[], Long>> action) {
+        if (cursor == null)
+            cursor = tree.cursor(from, fromInclusive, to, toInclusive, false);
+        if (!cursor.hasNext())
+            return false;
+        action.accept(cursor.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Map.Entry<byte[], Long>> action) {
+        if (cursor == null)
+            cursor = tree.cursor(from, fromInclusive, to, toInclusive, false);
+        while (cursor.hasNext())
+            action.accept(cursor.next());
+    }
+
+    @Override
+    public Spliterator<Map.Entry<byte[], Long>> trySplit() {
+        if (cursor != null)
+            return null;
+
+        double[] leftShare = new double[1];
+        byte[] separator = tree.splitKey(from, fromInclusive, to, leftShare);
+        if (separator == null)
+            return null;
+
+        // keys less than or equal to the separator are in the subtrees before it
+        long leftEstimate = (long) (estimate * leftShare[0]);
+        KeyRangeSpliterator prefix = new KeyRangeSpliterator(tree, from, fromInclusive, separator, true, leftEstimate);
+        from = separator;
+        fromInclusive = false;
+        estimate -= leftEstimate;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SORTED | DISTINCT | NONNULL | CONCURRENT;
+    }
+
+    @Override
+    public Comparator<? super Map.Entry<byte[], Long>> getComparator() {
+        return KEY_ORDER;
+    }
+}
@@ -0,0 +1,213 @@
+package com.jeffin;
+
+import com.jeffin.util.KeyComparator;
+import com.jeffin.util.KeyUtil;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: read-only view of a node block, keys and pointers are read from the block bytes in place.
+ *        one view can be pointed at different blocks, so walking from root to leaf doesn't allocate per node.
+ *        block layout: 1 byte leaf flag, 2 bytes key count, 2 bytes value count, 8 bytes next leaf address,
+ *        2 bytes prefix length, the prefix every key of the node starts with,
+ *        value count 8-byte pointers, key count 2-byte end offsets of the key suffixes, the key suffixes.
+ *        a key is the prefix followed by its suffix, so keys sharing a long prefix take little room
+ *        and separators, which are truncated, can have any length.
+ *        a node doesn't store its parent, writers find parents on the path they latched on the way down
+ */
+class NodeView {
+    static final int LEAF_FLAG_OFFSET = 0;
+    static final int KEY_COUNT_OFFSET = 1;
+    static final int VALUE_COUNT_OFFSET = 3;
+    static final int NEXT_LEAF_OFFSET = 5;
+    static final int PREFIX_LENGTH_OFFSET = 13;
+    static final int HEADER_SIZE = 15; // 1(tree or leaf node flag) + 2(current key count) + 2(current value count) + 8(next leaf address) + 2(prefix length)
+    static final int KEY_OVERHEAD = 2;  // end offset of every key suffix
+
+    private ByteBuffer block;
+    private int base;
+    private long startPos;
+
+    /**
+     * point the view at a block
+     * @param block buffer holding the block, only absolute reads are done on it
+     * @param base where the block starts in the buffer
+     * @param startPos start position of the block in index file
+     * @return this view
+     */
+    NodeView wrap(ByteBuffer block, int base, long startPos) {
+        this.block = block;
+        this.base = base;
+        this.startPos = startPos;
+        return this;
+    }
+
+    long getStartPos() {
+        return startPos;
+    }
+
+    boolean isLeaf() {
+        return block.get(base + LEAF_FLAG_OFFSET) != 0;
+    }
+
+    int keyCount() {
+        return block.getShort(base + KEY_COUNT_OFFSET) & 0xFFFF;
+    }
+
+    int valueCount() {
+        return block.getShort(base + VALUE_COUNT_OFFSET) & 0xFFFF;
+    }
+
+    long nextLeaf() {
+        return block.getLong(base + NEXT_LEAF_OFFSET);
+    }
+
+    int prefixLength() {
+        return block.getShort(base + PREFIX_LENGTH_OFFSET) & 0xFFFF;
+    }
+
+    /**
+     * @param i pointer index
+     * @return child node address for internal node, record position for leaf node
+     */
+    long pointerAt(int i) {
+        return block.getLong(base + HEADER_SIZE + prefixLength() + i * 8);
+    }
+
+    /**
+     * @return bytes of the block taken by the node
+     */
+    int usedBytes() {
+        int keyCount = keyCount();
+        return suffixStart(keyCount) + (keyCount == 0 ? 0 : suffixEnd(keyCount - 1));
+    }
+
+    /**
+     * copy a key out of the block, only used when a key has to outlive the view
+     * @param i key index
+     * @return prefix and suffix of the key
+     */
+    byte[] keyAt(int i) {
+        int prefixLength = prefixLength();
+        int start = suffixStart(keyCount());
+        int from = i == 0 ? 0 : suffixEnd(i - 1);
+        int to = suffixEnd(i);
+        byte[] key = new byte[prefixLength + to - from];
+        copy(base + HEADER_SIZE, key, 0, prefixLength);
+        copy(start + from, key, prefixLength, to - from);
+        return key;
+    }
+
+    private void copy(int offset, byte[] dst, int dstOffset, int length) {
+        if (block.hasArray()) {
+            System.arraycopy(block.array(), block.arrayOffset() + offset, dst, dstOffset, length);
+        } else {
+            for (int j = 0; j < length; j++)
+                dst[dstOffset + j] = block.get(offset + j);
+        }
+    }
+
+    /**
+     * @return where the key suffixes start in the buffer
+     */
+    private int suffixStart(int keyCount) {
+        return base + HEADER_SIZE + prefixLength() + valueCount() * 8 + keyCount * KEY_OVERHEAD;
+    }
+
+    /**
+     * @return end of the i-th key suffix, relative to where the suffixes start
+     */
+    private int suffixEnd(int i) {
+        return block.getShort(base + HEADER_SIZE + prefixLength() + valueCount() * 8 + i * KEY_OVERHEAD) & 0xFFFF;
+    }
+
+    /**
+     * binary search a key in the node, the search key is compared with the prefix once and with suffixes after that
+     * @param key search key
+     * @return index of the key if found, otherwise (-(insertion point) - 1), the insertion point is
+     *         the index of the first key greater than the search key
+     */
+    int search(byte[] key) {
+        int keyCount = keyCount();
+        int prefixLength = prefixLength();
+        int c = KeyComparator.compare(block, base + HEADER_SIZE, prefixLength, key, 0, Math.min(prefixLength, key.length));
+        if (c > 0 || (c == 0 && key.length < prefixLength))
+            return -1; // less than every key of the node
+        if (c < 0)
+            return -(keyCount + 1); // greater than every key of the node
+
+        int start = suffixStart(keyCount);
+        int low = 0;
+        int high = keyCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int from = mid == 0 ? 0 : suffixEnd(mid - 1);
+            c = KeyComparator.compare(block, start + from, suffixEnd(mid) - from, key, prefixLength, key.length - prefixLength);
+            if (c < 0)
+                low = mid + 1;
+            else if (c > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * find which child of an internal node may hold a key, a separator is not less than any key of its left child,
+     * so the child is the one of the first separator greater than or equal to the key,
+     * or the last child if the key is greater than every separator
+     * @param key search key
+     * @return index of the child pointer
+     */
+    int childIndex(byte[] key) {
+        return KeyComparator.lowerBound(search(key));
+    }
+
+    /**
+     * @param keys keys of a node in ascending order
+     * @param valueCount number of pointers of the node
+     * @return bytes the node takes in a block
+     */
+    static int encodedSize(List<byte[]> keys, int valueCount) {
+        int n = keys.size();
+        int prefixLength = n == 0 ? 0 : KeyUtil.commonPrefixLength(keys.get(0), keys.get(n - 1));
+        int size = HEADER_SIZE + prefixLength + valueCount * 8 + n * (KEY_OVERHEAD - prefixLength);
+        for (byte[] key : keys)
+            size += key.length;
+        return size;
+    }
+
+    /**
+     * write a node into a block, the prefix is the common prefix of the first and the last key, shared by all keys between them
+     * @param buffer block buffer, written from its position, must have room for encodedSize bytes
+     * @param leaf whether the node is a leaf
+     * @param keys keys in ascending order
+     * @param values pointers
+     * @param nextLeaf next leaf address, 0 if none
+     */
+    static void encode(ByteBuffer buffer, boolean leaf, List<byte[]> keys, List<Long> values, long nextLeaf) {
+        int n = keys.size();
+        int prefixLength = n == 0 ? 0 : KeyUtil.commonPrefixLength(keys.get(0), keys.get(n - 1));
+        buffer.put((byte) (leaf ? 1 : 0));
+        buffer.putShort((short) n);
+        buffer.putShort((short) values.size());
+        buffer.putLong(nextLeaf);
+        buffer.putShort((short) prefixLength);
+        if (n > 0)
+            buffer.put(keys.get(0), 0, prefixLength);
+        for (long value : values)
+            buffer.putLong(value);
+        int end = 0;
+        for (byte[] key : keys) {
+            end += key.length - prefixLength;
+            buffer.putShort((short) end);
+        }
+        for (byte[] key : keys)
+            buffer.put(key, prefixLength, key.length - prefixLength);
+    }
+}
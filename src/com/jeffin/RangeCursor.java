@@ -0,0 +1,129 @@
+package com.jeffin;
+
+import com.jeffin.util.KeyComparator;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: lazy cursor over the key-value pairs of a key range, forward or in reverse.
+ *        the pairs of one leaf are copied out at a time and no latch is held between calls,
+ *        so a caller can stop at any point or page through the whole index in constant memory.
+ *        the next leaf is found by the last key returned, not by a block address, so splits in between don't
+ *        make the cursor skip or repeat pairs. pairs inserted behind the cursor's position are not returned
+ */
+public class RangeCursor implements Iterator<Map.Entry<byte[], Long>> {
+    private final BPlusTree tree;
+    private final byte[] from;
+    private final boolean fromInclusive;
+    private final byte[] to;
+    private final boolean toInclusive;
+    private final boolean reverse;
+
+    private final List<byte[]> keys = new ArrayList<>();  // pairs of the leaf read last, ascending
+    private final List<Long> values = new ArrayList<>();
+    private int position;           // index of the next pair in keys, counting down in reverse
+    private byte[] resumeKey;       // where the next leaf is read from, null for the start of the range
+    private boolean resumeInclusive;
+    private long leafAddr;          // leaf read last, tried first by the next forward read
+    private boolean lastLeaf;       // no leaf left to read
+    private Map.Entry<byte[], Long> next;
+
+    RangeCursor(BPlusTree tree, byte[] from, boolean fromInclusive, byte[] to, boolean toInclusive, boolean reverse) {
+        this.tree = tree;
+        this.from = from;
+        this.fromInclusive = fromInclusive;
+        this.to = to;
+        this.toInclusive = toInclusive;
+        this.reverse = reverse;
+        this.resumeKey = reverse ? to : from;
+        this.resumeInclusive = reverse ? toInclusive : fromInclusive;
+        this.position = reverse ? -1 : 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null)
+            next = advance();
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<byte[], Long> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        Map.Entry<byte[], Long> entry = next;
+        next = null;
+        return entry;
+    }
+
+    /**
+     * @return next pair in the range, null once the range is exhausted
+     */
+    private Map.Entry<byte[], Long> advance() {
+        while (reverse ? position < 0 : position >= keys.size()) {
+            if (lastLeaf)
+                return null;
+            readLeaf();
+        }
+
+        byte[] key = keys.get(position);
+        long value = values.get(position);
+        position += reverse ? -1 : 1;
+        if (!inRange(key)) {
+            lastLeaf = true;
+            position = reverse ? -1 : keys.size();
+            return null;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+    }
+
+    /**
+     * read the pairs of the next leaf in the direction of the cursor
+     */
+    private void readLeaf() {
+        byte[] lastKey = keys.isEmpty() ? null : keys.get(reverse ? 0 : keys.size() - 1);
+        keys.clear();
+        values.clear();
+        if (reverse) {
+            byte[] lowerBound = tree.readBackward(resumeKey, resumeInclusive, keys, values);
+            lastLeaf = lowerBound == null;
+            resumeKey = lowerBound;
+            resumeInclusive = true;
+            position = keys.size() - 1;
+        } else {
+            if (lastKey != null) {
+                resumeKey = lastKey;
+                resumeInclusive = false;
+            }
+            leafAddr = tree.readForward(resumeKey, resumeInclusive, leafAddr, keys, values);
+            lastLeaf = leafAddr == 0L;
+            position = 0;
+        }
+    }
+
+    /**
+     * the start of the range is where reading began, only the end has to be checked
+     * @param key key
+     * @return whether the key is before the end of the range
+     */
+    private boolean inRange(byte[] key) {
+        if (reverse) {
+            if (from == null)
+                return true;
+            int c = KeyComparator.compare(key, from);
+            return c > 0 || (c == 0 && fromInclusive);
+        }
+        if (to == null)
+            return true;
+        int c = KeyComparator.compare(key, to);
+        return c < 0 || (c == 0 && toInclusive);
+    }
+}
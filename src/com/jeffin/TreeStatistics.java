@@ -0,0 +1,69 @@
+package com.jeffin;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: shape of a b+ tree counted by walking all of its nodes: height, nodes per level kind, keys, and how full the pages are.
+ *        a low leaf fill after many deletes or random inserts is what compaction fixes
+ */
+public class TreeStatistics {
+    private final int height;
+    private final long internalNodeCount;
+    private final long leafCount;
+    private final long keyCount;
+    private final double internalFill;
+    private final double leafFill;
+
+    /**
+     * @param height levels of the tree, 1 for a tree which is a single leaf, 0 for no tree
+     * @param internalNodeCount internal nodes
+     * @param leafCount leaves
+     * @param keyCount keys in the leaves
+     * @param internalFill average share of an internal node's page in use
+     * @param leafFill average share of a leaf's page in use
+     */
+    public TreeStatistics(int height, long internalNodeCount, long leafCount, long keyCount, double internalFill, double leafFill) {
+        this.height = height;
+        this.internalNodeCount = internalNodeCount;
+        this.leafCount = leafCount;
+        this.keyCount = keyCount;
+        this.internalFill = internalFill;
+        this.leafFill = leafFill;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getInternalNodeCount() {
+        return internalNodeCount;
+    }
+
+    public long getLeafCount() {
+        return leafCount;
+    }
+
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * @return average share of an internal node's page in use, between 0 and 1
+     */
+    public double getInternalFill() {
+        return internalFill;
+    }
+
+    /**
+     * @return average share of a leaf's page in use, between 0 and 1
+     */
+    public double getLeafFill() {
+        return leafFill;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("height %d, %d internal nodes %.1f%% full, %d leaves %.1f%% full, %d keys",
+                height, internalNodeCount, internalFill * 100, leafCount, leafFill * 100, keyCount);
+    }
+}
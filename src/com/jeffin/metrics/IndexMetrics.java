@@ -0,0 +1,117 @@
+package com.jeffin.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: counters and latency histograms of the operations on an index, shared by the IndexOperation, its tree and its txt file reader.
+ *        one IndexMetrics outlives the index files an IndexOperation opens and compacts, so counts add up over all of them.
+ *        counters are LongAdders, threads updating them at the same time don't contend on one cache line
+ */
+public class IndexMetrics {
+    private final LongAdder blockReads = new LongAdder();       // index blocks read from disk on a buffer pool miss
+    private final LongAdder blockWrites = new LongAdder();      // index blocks written back by a flush
+    private final LongAdder recordReads = new LongAdder();      // reads from the txt file, several records may come with one read
+    private final LongAdder recordBytesRead = new LongAdder();
+    private final LongAdder splits = new LongAdder();           // nodes split by inserts
+    private final LongAdder newRoots = new LongAdder();         // roots split, each adds a level to the tree
+    private final LongAdder merges = new LongAdder();           // nodes merged into a sibling by deletes
+
+    private final LatencyHistogram findLatency = new LatencyHistogram();
+    private final LatencyHistogram findAllLatency = new LatencyHistogram();
+    private final LatencyHistogram insertLatency = new LatencyHistogram();
+    private final LatencyHistogram deleteLatency = new LatencyHistogram();
+    private final LatencyHistogram listLatency = new LatencyHistogram();
+
+    public void blockRead() {
+        blockReads.increment();
+    }
+
+    public void blockWritten() {
+        blockWrites.increment();
+    }
+
+    /**
+     * @param bytes bytes of one read from the txt file
+     */
+    public void recordRead(long bytes) {
+        recordReads.increment();
+        recordBytesRead.add(bytes);
+    }
+
+    public void split() {
+        splits.increment();
+    }
+
+    public void newRoot() {
+        newRoots.increment();
+    }
+
+    public void merge() {
+        merges.increment();
+    }
+
+    public long getBlockReadCount() {
+        return blockReads.sum();
+    }
+
+    public long getBlockWriteCount() {
+        return blockWrites.sum();
+    }
+
+    public long getRecordReadCount() {
+        return recordReads.sum();
+    }
+
+    public long getRecordBytesRead() {
+        return recordBytesRead.sum();
+    }
+
+    public long getSplitCount() {
+        return splits.sum();
+    }
+
+    public long getNewRootCount() {
+        return newRoots.sum();
+    }
+
+    public long getMergeCount() {
+        return merges.sum();
+    }
+
+    /**
+     * @return latencies of findRecordByKey
+     */
+    public LatencyHistogram getFindLatency() {
+        return findLatency;
+    }
+
+    /**
+     * @return latencies of findAll, one value per batch
+     */
+    public LatencyHistogram getFindAllLatency() {
+        return findAllLatency;
+    }
+
+    /**
+     * @return latencies of insertNewRecord, including the wait for the log sync
+     */
+    public LatencyHistogram getInsertLatency() {
+        return insertLatency;
+    }
+
+    /**
+     * @return latencies of deleteRecord, including the wait for the log sync
+     */
+    public LatencyHistogram getDeleteLatency() {
+        return deleteLatency;
+    }
+
+    /**
+     * @return latencies of listSequentialRecords
+     */
+    public LatencyHistogram getListLatency() {
+        return listLatency;
+    }
+}
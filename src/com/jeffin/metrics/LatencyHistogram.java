@@ -0,0 +1,139 @@
+package com.jeffin.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: histogram of latencies in nanoseconds with a fixed relative error, laid out like HdrHistogram:
+ *        values below 128 have a bucket each, every larger power of 2 is cut into 64 buckets,
+ *        so a percentile is off by less than 1/64 (about 1.6%) of its value. values above about 18 minutes share the last bucket.
+ *        recording is lock-free, one counter increment and no allocation, so it can be left on in production.
+ *        a snapshot read while values are recorded may miss some of them
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;     // buckets per power of 2
+    private static final long MAX_VALUE = (1L << 40) - 1;            // about 18 minutes in nanoseconds
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * @param nanos latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0L, nanos);
+        counts.incrementAndGet(bucketIndex(Math.min(value, MAX_VALUE)));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * record the time passed since a start time
+     * @param startNanos System.nanoTime() when the operation started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return copy of the recorded values
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long n = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            n += copy[i];
+        }
+        return new Snapshot(copy, n, total.sum(), max.get());
+    }
+
+    /**
+     * values below 2 * SUB_BUCKETS are their own bucket, a larger value drops its low bits until it is below that,
+     * the number of bits dropped selects the power of 2 and the remaining high bits the bucket in it
+     */
+    private static int bucketIndex(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return largest value falling into a bucket
+     */
+    private static long bucketHighestValue(int index) {
+        int shift = index < 2 * SUB_BUCKETS ? 0 : index / SUB_BUCKETS - 1;
+        long lowest = (long) (index - shift * SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * recorded latencies at one point in time, all values are in nanoseconds
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return smallest recorded value which at least that share of the values don't exceed, 0 if nothing was recorded
+         */
+        public long valueAtPercentile(double percentile) {
+            if (count == 0)
+                return 0L;
+
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(bucketHighestValue(i), max);
+            }
+            return max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0L : total / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return valueAtPercentile(50);
+        }
+
+        public long getP90() {
+            return valueAtPercentile(90);
+        }
+
+        public long getP99() {
+            return valueAtPercentile(99);
+        }
+
+        public long getP999() {
+            return valueAtPercentile(99.9);
+        }
+    }
+}
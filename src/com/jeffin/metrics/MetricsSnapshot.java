@@ -0,0 +1,142 @@
+package com.jeffin.metrics;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: counters and latency percentiles of an index copied at one point in time, it doesn't change once taken.
+ *        the difference of two snapshots gives the cost of what ran between them, e.g. blocks read per find
+ */
+public class MetricsSnapshot {
+    private final long timestamp;
+    private final long blockReadCount;
+    private final long blockWriteCount;
+    private final long recordReadCount;
+    private final long recordBytesRead;
+    private final long splitCount;
+    private final long newRootCount;
+    private final long mergeCount;
+    private final int treeHeight;
+    private final long cacheHitCount;
+    private final long cacheMissCount;
+    private final LatencyHistogram.Snapshot findLatency;
+    private final LatencyHistogram.Snapshot findAllLatency;
+    private final LatencyHistogram.Snapshot insertLatency;
+    private final LatencyHistogram.Snapshot deleteLatency;
+    private final LatencyHistogram.Snapshot listLatency;
+
+    /**
+     * @param metrics counters and histograms to copy
+     * @param treeHeight levels of the tree, 0 if no index file is open
+     * @param cacheHitCount buffer pool hits
+     * @param cacheMissCount buffer pool misses
+     */
+    public MetricsSnapshot(IndexMetrics metrics, int treeHeight, long cacheHitCount, long cacheMissCount) {
+        this.timestamp = System.currentTimeMillis();
+        this.blockReadCount = metrics.getBlockReadCount();
+        this.blockWriteCount = metrics.getBlockWriteCount();
+        this.recordReadCount = metrics.getRecordReadCount();
+        this.recordBytesRead = metrics.getRecordBytesRead();
+        this.splitCount = metrics.getSplitCount();
+        this.newRootCount = metrics.getNewRootCount();
+        this.mergeCount = metrics.getMergeCount();
+        this.treeHeight = treeHeight;
+        this.cacheHitCount = cacheHitCount;
+        this.cacheMissCount = cacheMissCount;
+        this.findLatency = metrics.getFindLatency().snapshot();
+        this.findAllLatency = metrics.getFindAllLatency().snapshot();
+        this.insertLatency = metrics.getInsertLatency().snapshot();
+        this.deleteLatency = metrics.getDeleteLatency().snapshot();
+        this.listLatency = metrics.getListLatency().snapshot();
+    }
+
+    /**
+     * @return when the snapshot was taken, milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getBlockReadCount() {
+        return blockReadCount;
+    }
+
+    public long getBlockWriteCount() {
+        return blockWriteCount;
+    }
+
+    public long getRecordReadCount() {
+        return recordReadCount;
+    }
+
+    public long getRecordBytesRead() {
+        return recordBytesRead;
+    }
+
+    public long getSplitCount() {
+        return splitCount;
+    }
+
+    public long getNewRootCount() {
+        return newRootCount;
+    }
+
+    public long getMergeCount() {
+        return mergeCount;
+    }
+
+    public int getTreeHeight() {
+        return treeHeight;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    public long getCacheMissCount() {
+        return cacheMissCount;
+    }
+
+    public LatencyHistogram.Snapshot getFindLatency() {
+        return findLatency;
+    }
+
+    public LatencyHistogram.Snapshot getFindAllLatency() {
+        return findAllLatency;
+    }
+
+    public LatencyHistogram.Snapshot getInsertLatency() {
+        return insertLatency;
+    }
+
+    public LatencyHistogram.Snapshot getDeleteLatency() {
+        return deleteLatency;
+    }
+
+    public LatencyHistogram.Snapshot getListLatency() {
+        return listLatency;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("blocks read ").append(blockReadCount).append(", written ").append(blockWriteCount);
+        sb.append(", cache hits ").append(cacheHitCount).append(", misses ").append(cacheMissCount);
+        sb.append(", txt reads ").append(recordReadCount).append(" (").append(recordBytesRead).append(" bytes)");
+        sb.append(", splits ").append(splitCount).append(", new roots ").append(newRootCount).append(", merges ").append(mergeCount);
+        sb.append(", tree height ").append(treeHeight);
+        appendLatency(sb, "find", findLatency);
+        appendLatency(sb, "findAll", findAllLatency);
+        appendLatency(sb, "insert", insertLatency);
+        appendLatency(sb, "delete", deleteLatency);
+        appendLatency(sb, "list", listLatency);
+        return sb.toString();
+    }
+
+    private static void appendLatency(StringBuilder sb, String name, LatencyHistogram.Snapshot latency) {
+        if (latency.getCount() == 0)
+            return;
+        sb.append("\n").append(name).append(": ").append(latency.getCount()).append(" ops, us p50 ").append(latency.getP50() / 1000)
+                .append(" p90 ").append(latency.getP90() / 1000).append(" p99 ").append(latency.getP99() / 1000)
+                .append(" p99.9 ").append(latency.getP999() / 1000).append(" max ").append(latency.getMax() / 1000);
+    }
+}
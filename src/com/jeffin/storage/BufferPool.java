@@ -0,0 +1,504 @@
+package com.jeffin.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: a bounded page cache sitting in front of the index file,
+ *        pages are identified by their start position in the index file and can be pinned while in use,
+ *        a pinned page is never evicted.
+ *        modified pages are kept as dirty pages and only written back by flush, a dirty page is never evicted.
+ *        if every frame is pinned or dirty, a page is kept in an extra page outside the frames until it is unpinned and clean,
+ *        so every pin of an address gets the same page and pages are only ever written when the caller flushes.
+ *        the pool is thread-safe, a miss is loaded outside the pool lock and other pins of the same page wait for it.
+ *        every page has a latch, the pool never takes it, callers latch pinned pages to read or change their content
+ */
+public class BufferPool {
+    private static final int OVERFLOW_FRAME = -1;   // frame of a page kept outside the frames
+
+    private final int pageSize;
+    private final int maxPages;
+    private final EvictionPolicy policy;
+    private final Map<Long, Page> pageTable;
+    private final Page[] frames;
+    private final Deque<Page> freePages;  // frames released by clear or by a failed load
+    private int usedFrames;
+
+    // LRU list, head is the least recently used page, tail is the most recently used one
+    private Page lruHead;
+    private Page lruTail;
+
+    // CLOCK hand, the frame index where the next sweep starts
+    private int clockHand;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private int dirtyCount;
+
+    /**
+     * load a page from disk on a cache miss
+     */
+    public interface PageLoader {
+        /**
+         * read the page starting at pageAddr into page
+         * @param pageAddr page start position
+         * @param page destination buffer, positioned at 0 with the page size as its limit
+         */
+        void load(long pageAddr, ByteBuffer page);
+    }
+
+    /**
+     * write a dirty page back to disk
+     */
+    public interface PageWriter {
+        /**
+         * write page to the position pageAddr
+         * @param pageAddr page start position
+         * @param page page content, positioned at 0 with the page size as its limit
+         */
+        void write(long pageAddr, ByteBuffer page);
+    }
+
+    /**
+     * BufferPool constructor
+     * @param capacityBytes maximum number of bytes the cached pages can occupy
+     * @param pageSize page size in bytes
+     * @param policy eviction policy
+     */
+    public BufferPool(long capacityBytes, int pageSize, EvictionPolicy policy) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        if (capacityBytes < pageSize)
+            throw new IllegalArgumentException("capacity must hold at least one page: " + capacityBytes);
+
+        this.pageSize = pageSize;
+        this.maxPages = (int) Math.min(Integer.MAX_VALUE - 8, capacityBytes / pageSize);
+        this.policy = policy;
+        this.pageTable = new HashMap<>();
+        this.frames = new Page[maxPages];
+        this.freePages = new ArrayDeque<>();
+    }
+
+    /**
+     * pin a page, load it with the loader if it's not cached.
+     * every pin must be paired with an unpin, otherwise the page can't be evicted
+     * @param pageAddr page start position
+     * @param loader used to read the page on a cache miss
+     * @return pinned page
+     */
+    public Page pin(long pageAddr, PageLoader loader) {
+        Page page;
+        boolean miss;
+        synchronized (this) {
+            page = pageTable.get(pageAddr);
+            miss = page == null;
+            if (miss) {
+                missCount++;
+                page = allocate(pageAddr);
+                page.loaded = false;
+            } else {
+                hitCount++;
+                touch(page);
+            }
+            page.pinCount++;
+        }
+
+        if (!miss) {
+            try {
+                page.awaitLoaded();
+            } catch (RuntimeException e) {
+                unpin(page);
+                throw e;
+            }
+            return page;
+        }
+
+        try {
+            loader.load(pageAddr, page.clearedBuffer());
+        } catch (RuntimeException e) {
+            page.finishLoading(e);
+            unpin(page); // the page is dropped once every waiter has given it up, the next pin loads it again
+            throw e;
+        }
+        page.finishLoading(null);
+        return page;
+    }
+
+    /**
+     * release a page returned by pin
+     * @param page page
+     */
+    public synchronized void unpin(Page page) {
+        if (page.pinCount <= 0)
+            throw new IllegalStateException("page " + page.addr + " is not pinned");
+        page.pinCount--;
+        if (page.pinCount == 0 && (page.loadFailure != null || page.frame == OVERFLOW_FRAME && !page.dirty))
+            remove(page);
+    }
+
+    /**
+     * replace the content of a page without writing it, the page is written back by a later flush.
+     * several puts of the same page before a flush end up as one write.
+     * the caller must hold the page latch exclusively if the page is reachable by other threads
+     * @param pageAddr page start position
+     * @param data page content
+     */
+    public synchronized void putDirty(long pageAddr, byte[] data) {
+        Page page = pageTable.get(pageAddr);
+        if (page == null)
+            page = allocate(pageAddr);
+        else
+            touch(page);
+        copy(data, page);
+
+        if (!page.dirty) {
+            page.dirty = true;
+            dirtyCount++;
+        }
+    }
+
+    private void copy(byte[] data, Page page) {
+        int len = Math.min(data.length, pageSize);
+        System.arraycopy(data, 0, page.data, 0, len);
+        if (len < pageSize)
+            Arrays.fill(page.data, len, pageSize, (byte) 0);
+    }
+
+    /**
+     * visit every dirty page in ascending address order without writing it back.
+     * pages must not be modified meanwhile
+     * @param writer receives the pages
+     */
+    public void forEachDirty(PageWriter writer) {
+        List<Page> dirtyPages = pinDirtyPages();
+        try {
+            for (Page page : dirtyPages)
+                writer.write(page.addr, ByteBuffer.wrap(page.data));
+        } finally {
+            for (Page page : dirtyPages)
+                unpin(page);
+        }
+    }
+
+    /**
+     * write every dirty page back in ascending address order, so the writes sweep the file in one direction.
+     * pages are written outside the pool lock, they must not be modified meanwhile
+     * @param writer used to write the pages
+     * @return number of pages written
+     */
+    public int flush(PageWriter writer) {
+        List<Page> dirtyPages = pinDirtyPages();
+        int written = 0;
+        try {
+            for (Page page : dirtyPages) {
+                writer.write(page.addr, ByteBuffer.wrap(page.data));
+                synchronized (this) {
+                    page.dirty = false;
+                    dirtyCount--;
+                }
+                written++;
+            }
+        } finally {
+            for (Page page : dirtyPages)
+                unpin(page); // a clean extra page is dropped here
+        }
+
+        return written;
+    }
+
+    /**
+     * @return dirty pages sorted by address, every one of them pinned
+     */
+    private synchronized List<Page> pinDirtyPages() {
+        List<Page> dirtyPages = new ArrayList<>(dirtyCount);
+        if (dirtyCount == 0)
+            return dirtyPages;
+
+        for (Page page : pageTable.values()) {
+            if (page.dirty) {
+                page.pinCount++;
+                dirtyPages.add(page);
+            }
+        }
+        dirtyPages.sort(Comparator.comparingLong(page -> page.addr));
+        return dirtyPages;
+    }
+
+    /**
+     * remove a page from the page table, its frame is free again
+     * @param page page
+     */
+    private void remove(Page page) {
+        pageTable.remove(page.addr);
+        if (page.dirty) {
+            page.dirty = false;
+            dirtyCount--;
+        }
+        if (page.frame == OVERFLOW_FRAME)
+            return;
+
+        page.addr = -1L;
+        page.referenced = false;
+        if (policy == EvictionPolicy.LRU)
+            unlink(page);
+        freePages.push(page);
+    }
+
+    /**
+     * drop every cached page, used when the underlying index file is replaced. dirty pages are dropped without being written
+     */
+    public synchronized void clear() {
+        for (Page page : pageTable.values()) {
+            if (page.pinCount > 0)
+                throw new IllegalStateException("page " + page.addr + " is pinned");
+        }
+        pageTable.clear();
+        freePages.clear();
+        for (int i = 0; i < usedFrames; i++) {
+            frames[i].addr = -1L;
+            frames[i].referenced = false;
+            frames[i].dirty = false;
+            frames[i].prev = null;
+            frames[i].next = null;
+            freePages.push(frames[i]);
+        }
+        lruHead = null;
+        lruTail = null;
+        clockHand = 0;
+        dirtyCount = 0;
+    }
+
+    /**
+     * find a page for a new address, an unused frame, an evicted one,
+     * or an extra page outside the frames if every frame is pinned or dirty
+     * @param pageAddr page start position
+     * @return a page registered under pageAddr
+     */
+    private Page allocate(long pageAddr) {
+        Page page;
+        if (!freePages.isEmpty()) {
+            page = freePages.pop();
+        } else if (usedFrames < maxPages) {
+            page = new Page(usedFrames, pageSize);
+            frames[usedFrames++] = page;
+        } else {
+            page = findVictim();
+            if (page == null) {
+                page = new Page(OVERFLOW_FRAME, pageSize);
+                page.addr = pageAddr;
+                pageTable.put(pageAddr, page);
+                return page;
+            }
+            pageTable.remove(page.addr);
+            evictionCount++;
+        }
+
+        page.addr = pageAddr;
+        page.pinCount = 0;
+        page.loaded = true;
+        page.loadFailure = null;
+        pageTable.put(pageAddr, page);
+        if (policy == EvictionPolicy.LRU) {
+            unlink(page);
+            append(page);
+        } else {
+            page.referenced = true;
+        }
+
+        return page;
+    }
+
+    /**
+     * choose an unpinned clean page to evict according to the eviction policy
+     * @return victim page, null if every page is pinned or dirty
+     */
+    private Page findVictim() {
+        if (policy == EvictionPolicy.LRU) {
+            for (Page page = lruHead; page != null; page = page.next) {
+                if (page.pinCount == 0 && !page.dirty)
+                    return page;
+            }
+            return null;
+        }
+
+        // every frame gets at most two looks, the first one clears its reference bit
+        for (int i = 0; i < maxPages * 2; i++) {
+            Page page = frames[clockHand];
+            clockHand = (clockHand + 1) % maxPages;
+            if (page.pinCount > 0 || page.dirty || page.addr == -1L)
+                continue; // pinned, dirty, or a free frame which is handed out through freePages
+            if (page.referenced) {
+                page.referenced = false;
+                continue;
+            }
+            return page;
+        }
+
+        return null;
+    }
+
+    /**
+     * record an access to a page
+     * @param page page
+     */
+    private void touch(Page page) {
+        if (page.frame == OVERFLOW_FRAME)
+            return;
+        if (policy == EvictionPolicy.LRU) {
+            if (page != lruTail) {
+                unlink(page);
+                append(page);
+            }
+        } else {
+            page.referenced = true;
+        }
+    }
+
+    private void append(Page page) {
+        page.prev = lruTail;
+        page.next = null;
+        if (lruTail != null)
+            lruTail.next = page;
+        else
+            lruHead = page;
+        lruTail = page;
+    }
+
+    private void unlink(Page page) {
+        if (page.prev != null)
+            page.prev.next = page.next;
+        else if (lruHead == page)
+            lruHead = page.next;
+
+        if (page.next != null)
+            page.next.prev = page.prev;
+        else if (lruTail == page)
+            lruTail = page.prev;
+
+        page.prev = null;
+        page.next = null;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of pages modified since they were last written
+     */
+    public synchronized int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    /**
+     * @return number of pages currently cached
+     */
+    public synchronized int getCachedPageCount() {
+        return pageTable.size();
+    }
+
+    /**
+     * @return maximum number of pages the pool can hold
+     */
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * A page frame of the buffer pool
+     */
+    public static class Page {
+        private final int frame;       // index in frames, OVERFLOW_FRAME if the page is kept outside the frames
+        private final byte[] data;
+        private final ByteBuffer buffer;  // wraps data, reused by every load of this frame
+        private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+        private long addr = -1L;       // start position in index file, -1 if the frame is free
+        private int pinCount;
+        private boolean referenced;    // CLOCK reference bit
+        private boolean dirty;         // modified since it was last written to disk
+        private volatile boolean loaded = true; // false while the first pin reads it from disk
+        private volatile RuntimeException loadFailure;
+        private Page prev;             // LRU list links
+        private Page next;
+
+        private Page(int frame, int pageSize) {
+            this.frame = frame;
+            this.data = new byte[pageSize];
+            this.buffer = ByteBuffer.wrap(data);
+        }
+
+        private ByteBuffer clearedBuffer() {
+            buffer.clear();
+            return buffer;
+        }
+
+        private synchronized void finishLoading(RuntimeException failure) {
+            loadFailure = failure;
+            loaded = true;
+            notifyAll();
+        }
+
+        /**
+         * wait until the pin which missed has read the page
+         */
+        private synchronized void awaitLoaded() {
+            boolean interrupted = false;
+            while (!loaded) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (loadFailure != null)
+                throw new IllegalStateException("failed to load page " + addr, loadFailure);
+        }
+
+        /**
+         * @return page content wrapped in a buffer, only absolute get methods should be used on it
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * @return latch guarding the page content, shared to read it, exclusive to change it
+         */
+        public ReentrantReadWriteLock getLatch() {
+            return latch;
+        }
+
+        public long getAddr() {
+            return addr;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.jeffin.storage;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: page replacement policies supported by the buffer pool
+ */
+public enum EvictionPolicy {
+    /**
+     * evict the least recently used unpinned page
+     */
+    LRU,
+
+    /**
+     * second chance clock sweep, a hit only sets the reference bit so it is cheaper than LRU bookkeeping
+     */
+    CLOCK
+}
@@ -0,0 +1,415 @@
+package com.jeffin.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: an open index file, owns one FileChannel for its whole life and reads/writes blocks with positional I/O.
+ *        the page size is chosen when the file is created, the header fills the first page and every node takes one page.
+ *        header layout: 256 bytes source file name, 8 bytes maximum key size, 8 bytes root address, 8 bytes next available block offset,
+ *        8 bytes page size, 8 bytes format version, 8 bytes first free block.
+ *        in memory mapped mode the file is read-only, it is mapped once in segments when it is opened and blocks are read straight
+ *        from the mapping. the header is read once and the mapping never grows, readers take no lock and a block written in place
+ *        can be seen half written, so the file must not be written, by this or another process, while it is mapped.
+ *        otherwise root address, next available block offset and first free block are changed in memory and written back by flush or close
+ */
+public class IndexFile implements Closeable {
+    public static final int MIN_PAGE_SIZE = 1024;
+    public static final int MAX_PAGE_SIZE = 64 * 1024;
+    public static final int DEFAULT_PAGE_SIZE = 4 * 1024;
+    public static final long FORMAT_VERSION = 5;   // version 1: page size in the header, 2 byte key and value counts in nodes. version 2: prefix compressed nodes.
+                                                   // version 3: keys stored at their own length, key size is the longest key.
+                                                   // version 4: list of free blocks in the header. version 5: no parent address in nodes
+    public static final int SOURCE_FILE_NAME_SIZE = 256;
+    private static final long KEY_SIZE_OFFSET = 256;
+    private static final long ROOT_ADDR_OFFSET = 264;
+    private static final long SPACE_OFFSET_OFFSET = 272;
+    private static final long PAGE_SIZE_OFFSET = 280;
+    private static final long FORMAT_VERSION_OFFSET = 288;
+    private static final long FREE_LIST_OFFSET = 296;
+    public static final long SEGMENT_SIZE = 1L << 30; // a mapping can't exceed 2GB, map 1GB segments, a multiple of every page size
+
+    private volatile String fileName;
+    private final FileChannel channel;
+    private final ByteBuffer longBuffer = ByteBuffer.allocate(Long.BYTES); // reused by every header field access
+    private final boolean memoryMapped;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long mappedSize;
+
+    // header fields are kept in memory, this object is the only writer of the file while it is open
+    private volatile long keySize;
+    private volatile int pageSize;
+    private volatile long rootAddr;
+    private volatile long currentSpaceOffset;
+    private volatile long freeListHead;      // first block of the list of free blocks, 0 if there is none
+    private volatile boolean headerDirty;    // rootAddr, currentSpaceOffset or freeListHead changed since the header was last written
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(2 * Long.BYTES);
+
+    /**
+     * open an index file, the file is created if it doesn't exist
+     * @param fileName index file name
+     * @throws IOException if the file can't be opened
+     */
+    public IndexFile(String fileName) throws IOException {
+        this(fileName, false);
+    }
+
+    /**
+     * open an index file
+     * @param fileName index file name
+     * @param memoryMapped true to open an existing file read-only and map it into memory, nothing may write the file
+     *                     until it is closed again. false to open it for reading and writing, creating it if it doesn't exist
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public IndexFile(String fileName, boolean memoryMapped) throws IOException {
+        this.fileName = fileName;
+        this.memoryMapped = memoryMapped;
+        if (memoryMapped) {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            try {
+                map();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } else {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        try {
+            loadHeader();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * map the whole file as it is when opened
+     * @throws IOException if mapping fails
+     */
+    private void map() throws IOException {
+        long size = channel.size();
+        int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        mappedSize = size;
+    }
+
+    /**
+     * get the mapped segment holding the block starting at pos
+     * @param pos block start position
+     * @return segment, the block starts at segmentOffset(pos) in it. null if the block lies past the end of the mapping
+     */
+    public ByteBuffer mappedSegment(long pos) {
+        if (!memoryMapped)
+            throw new IllegalStateException(fileName + " is not memory mapped");
+        if (pos + pageSize > mappedSize)
+            return null;
+        return segments[(int) (pos / SEGMENT_SIZE)];
+    }
+
+    /**
+     * @param pos block start position
+     * @return where the block starts in the segment returned by mappedSegment(pos)
+     */
+    public static int segmentOffset(long pos) {
+        return (int) (pos % SEGMENT_SIZE);
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * read header fields into memory, a new empty file has all of them set to 0 and uses the default page size
+     * @throws IOException if the file was written in another format
+     */
+    private void loadHeader() throws IOException {
+        keySize = readLong(KEY_SIZE_OFFSET);
+        rootAddr = readLong(ROOT_ADDR_OFFSET);
+        currentSpaceOffset = readLong(SPACE_OFFSET_OFFSET);
+        freeListHead = readLong(FREE_LIST_OFFSET);
+        if (keySize == 0L) {
+            pageSize = DEFAULT_PAGE_SIZE;
+            return;
+        }
+
+        long version = readLong(FORMAT_VERSION_OFFSET);
+        if (version != FORMAT_VERSION)
+            throw new IOException(fileName + " has index format version " + version + ", expected " + FORMAT_VERSION + ", create the index again");
+        pageSize = (int) readLong(PAGE_SIZE_OFFSET);
+    }
+
+    /**
+     * @param pageSize page size
+     * @return true if pages of this size can be stored: a power of 2 between MIN_PAGE_SIZE and MAX_PAGE_SIZE
+     */
+    public static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE && Integer.bitCount(pageSize) == 1;
+    }
+
+    /**
+     * write a new header block, used when an index file is created
+     * @param sourceFile source txt file name
+     * @param keySize longest key of the index, keys are stored at their own length
+     * @param pageSize page size, see isValidPageSize
+     * @param rootAddr root node address
+     * @param spaceOffset next available block offset
+     */
+    public synchronized void writeHeader(String sourceFile, long keySize, int pageSize, long rootAddr, long spaceOffset) {
+        checkWritable();
+        if (!isValidPageSize(pageSize))
+            throw new IllegalArgumentException("page size must be a power of 2 between " + MIN_PAGE_SIZE + " and " + MAX_PAGE_SIZE + ": " + pageSize);
+        byte[] headBlock = new byte[pageSize];
+        ByteBuffer buffer = ByteBuffer.wrap(headBlock);
+        byte[] sFileBytes = sourceFile.getBytes(StandardCharsets.UTF_8);
+        buffer.put(sFileBytes, 0, Math.min(sFileBytes.length, SOURCE_FILE_NAME_SIZE));
+        buffer.position(SOURCE_FILE_NAME_SIZE);
+        buffer.putLong(keySize);
+        buffer.putLong(rootAddr);
+        buffer.putLong(spaceOffset);
+        buffer.putLong(pageSize);
+        buffer.putLong(FORMAT_VERSION);
+        buffer.putLong(0L); // no free block yet
+
+        buffer.clear();
+        write(buffer, 0L);
+        this.keySize = keySize;
+        this.pageSize = pageSize;
+        this.rootAddr = rootAddr;
+        this.currentSpaceOffset = spaceOffset;
+        this.freeListHead = 0L;
+        this.headerDirty = false;
+    }
+
+    /**
+     * write root address, next available block offset and first free block back into the header block if they have changed,
+     * the first two are written with one write since they are next to each other
+     */
+    public synchronized void flush() {
+        if (!headerDirty)
+            return;
+
+        headerBuffer.clear();
+        headerBuffer.putLong(rootAddr);
+        headerBuffer.putLong(currentSpaceOffset);
+        headerBuffer.flip();
+        write(headerBuffer, ROOT_ADDR_OFFSET);
+        longBuffer.clear();
+        longBuffer.putLong(freeListHead);
+        longBuffer.flip();
+        write(longBuffer, FREE_LIST_OFFSET);
+        headerDirty = false;
+    }
+
+    /**
+     * read a block into dst starting at pos, bytes past the end of file are filled with 0
+     * @param pos block start position
+     * @param dst destination buffer, reads from its position up to its limit
+     */
+    public void readBlock(long pos, ByteBuffer dst) {
+        try {
+            long filePos = pos;
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst, filePos);
+                if (n < 0)
+                    break;
+                filePos += n;
+            }
+            while (dst.hasRemaining())
+                dst.put((byte) 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read " + fileName + " at " + pos, e);
+        }
+    }
+
+    /**
+     * write a buffer into the file starting at pos
+     * @param src source buffer, writes from its position up to its limit
+     * @param pos start position in file
+     */
+    public void write(ByteBuffer src, long pos) {
+        checkWritable();
+        try {
+            long filePos = pos;
+            while (src.hasRemaining())
+                filePos += channel.write(src, filePos);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write " + fileName + " at " + pos, e);
+        }
+    }
+
+    /**
+     * sync everything written into the file to disk
+     */
+    public void force() {
+        checkWritable();
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to sync " + fileName, e);
+        }
+    }
+
+    /**
+     * @return true if root address, next available block offset or first free block changed since the header was last written
+     */
+    public boolean isHeaderDirty() {
+        return headerDirty;
+    }
+
+    private void checkWritable() {
+        if (memoryMapped)
+            throw new IllegalStateException(fileName + " is opened read-only");
+    }
+
+    private long readLong(long pos) {
+        if (memoryMapped) {
+            // header fields lie in the first segment, which is at least one block long once the header is written
+            ByteBuffer segment = segments.length > 0 ? segments[0] : null;
+            return segment != null && pos + Long.BYTES <= segment.capacity() ? segment.getLong((int) pos) : 0L;
+        }
+
+        longBuffer.clear();
+        readBlock(pos, longBuffer);
+        return longBuffer.getLong(0);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return source txt file name stored in the header
+     */
+    public String getSourceFileName() {
+        ByteBuffer name = ByteBuffer.allocate(SOURCE_FILE_NAME_SIZE);
+        readBlock(0L, name);
+        int length = 0;
+        while (length < SOURCE_FILE_NAME_SIZE && name.get(length) != 0)
+            length++;
+        return new String(name.array(), 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * atomically rename the file over another one, the channel stays open so the file is used under its new name.
+     * whoever still has the replaced file open keeps reading its old content
+     * @param target file name to move to, replaced if it exists
+     * @throws IOException if the file can't be renamed
+     */
+    public synchronized void moveTo(String target) throws IOException {
+        Path targetPath = Paths.get(target);
+        Files.move(Paths.get(fileName), targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        fileName = target;
+        // the rename is durable once the directory is synced, not every platform can open a directory for that
+        Path dir = targetPath.toAbsolutePath().getParent();
+        try (FileChannel dirChannel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            dirChannel.force(true);
+        } catch (IOException e) {
+            // the rename still happened, it may be lost on a power failure
+        }
+    }
+
+    public long getKeySize() {
+        return keySize;
+    }
+
+    /**
+     * @return size of the header block and of every node block
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return root node address
+     */
+    public long getRootAddr() {
+        return rootAddr;
+    }
+
+    /**
+     * update root node address in memory, the header block is updated by flush
+     * @param rootAddr root address
+     */
+    public synchronized void setRootAddr(long rootAddr) {
+        checkWritable();
+        this.rootAddr = rootAddr;
+        headerDirty = true;
+    }
+
+    /**
+     * @return next available block offset, where a new block can be allocated
+     */
+    public long getCurrentSpaceOffset() {
+        return currentSpaceOffset;
+    }
+
+    /**
+     * update next available block offset in memory, the header block is updated by flush
+     * @param spaceOffset next available block offset
+     */
+    public synchronized void setCurrentSpaceOffset(long spaceOffset) {
+        checkWritable();
+        this.currentSpaceOffset = spaceOffset;
+        headerDirty = true;
+    }
+
+    /**
+     * @return first block of the list of free blocks, 0 if there is none. every free block holds the address of the next one,
+     *         the tree keeps the list, the index file only stores where it starts
+     */
+    public long getFreeListHead() {
+        return freeListHead;
+    }
+
+    /**
+     * update the first free block in memory, the header block is updated by flush
+     * @param freeListHead first free block, 0 if there is none
+     */
+    public synchronized void setFreeListHead(long freeListHead) {
+        checkWritable();
+        this.freeListHead = freeListHead;
+        headerDirty = true;
+    }
+
+    /**
+     * take the next available block, several threads may allocate blocks at the same time
+     * @return start position of the new block
+     */
+    public synchronized long allocateBlock() {
+        checkWritable();
+        long block = currentSpaceOffset;
+        currentSpaceOffset += pageSize;
+        headerDirty = true;
+        return block;
+    }
+
+    /**
+     * write the header back if it has changed and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (!memoryMapped && channel.isOpen())
+            flush();
+        segments = new MappedByteBuffer[0]; // mappings are released once they are garbage collected
+        mappedSize = 0L;
+        channel.close();
+    }
+}
@@ -0,0 +1,189 @@
+package com.jeffin.storage;
+
+import com.jeffin.metrics.IndexMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: read records of a txt file by start position, a record is the line starting at that position.
+ *        the file is opened once and read with positional I/O into a reused buffer.
+ *        a batch of positions is sorted and records lying close to each other are read with one large sequential read.
+ *        the reader is thread-safe, every thread reads into its own buffer
+ */
+public class RecordReader implements Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;  // a record usually fits, the buffer grows for longer ones
+    private static final int MAX_BATCH_READ = 1024 * 1024;    // at most 1MB is read at once for a batch
+    private static final int MAX_GAP = 64 * 1024;             // records further apart than this are read separately
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final IndexMetrics metrics; // every read and its bytes are counted here
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+    /**
+     * open a txt file for reading records
+     * @param fileName txt file name
+     * @throws IOException if the file can't be opened
+     */
+    public RecordReader(String fileName) throws IOException {
+        this(fileName, new IndexMetrics());
+    }
+
+    /**
+     * open a txt file for reading records
+     * @param fileName txt file name
+     * @param metrics counters reads from the file are added to
+     * @throws IOException if the file can't be opened
+     */
+    public RecordReader(String fileName, IndexMetrics metrics) throws IOException {
+        this.fileName = fileName;
+        this.metrics = metrics;
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * read one record
+     * @param offset start position of the record
+     * @return record without the line terminator, null if offset is at or past the end of file
+     */
+    public String read(long offset) {
+        int size = INITIAL_BUFFER_SIZE;
+        while (true) {
+            ByteBuffer buffer = fill(offset, size);
+            int length = buffer.position();
+            if (length <= 0)
+                return null;
+
+            int end = lineEnd(buffer, 0, length);
+            if (end >= 0 || length < size)
+                return decode(buffer, 0, end >= 0 ? end : length); // the last line may have no '\n'
+
+            size *= 2; // the record is longer than what was read, read it again with a larger buffer
+        }
+    }
+
+    /**
+     * read several records, positions are sorted and records close to each other are read with one sequential read
+     * @param offsets start positions of the records
+     * @return records in the order of offsets, null for a position at or past the end of file
+     */
+    public List<String> readAll(List<Long> offsets) {
+        int n = offsets.size();
+        String[] records = new String[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(offsets.get(a), offsets.get(b)));
+
+        int i = 0;
+        while (i < n) {
+            // grow the batch while the next record starts close to the previous one and the read stays bounded
+            long start = offsets.get(order[i]);
+            int j = i + 1;
+            while (j < n) {
+                long next = offsets.get(order[j]);
+                if (next - offsets.get(order[j - 1]) > MAX_GAP || next - start + INITIAL_BUFFER_SIZE > MAX_BATCH_READ)
+                    break;
+                j++;
+            }
+
+            long last = offsets.get(order[j - 1]);
+            int size = (int) (last - start) + INITIAL_BUFFER_SIZE;
+            ByteBuffer buffer = fill(start, size);
+            int length = buffer.position();
+            List<Integer> unfinished = new ArrayList<>();
+            for (int k = i; k < j; k++) {
+                int from = (int) (offsets.get(order[k]) - start);
+                int end = from < length ? lineEnd(buffer, from, length) : -1;
+                if (end >= 0)
+                    records[order[k]] = decode(buffer, from, end);
+                else if (from < length && length < size)
+                    records[order[k]] = decode(buffer, from, length); // the last line may have no '\n'
+                else
+                    unfinished.add(order[k]); // at end of file or longer than what was read
+            }
+            for (int index : unfinished)
+                records[index] = read(offsets.get(index)); // reading reuses the buffer, so the batch is decoded first
+            i = j;
+        }
+
+        List<String> result = new ArrayList<>(n);
+        Collections.addAll(result, records);
+        return result;
+    }
+
+    /**
+     * read up to length bytes starting at offset into the buffer of this thread, the buffer grows if it is too small
+     * @param offset start position in file
+     * @param length how many bytes to read
+     * @return buffer, its position is how many bytes were read, less than length at the end of file
+     */
+    private ByteBuffer fill(long offset, int length) {
+        ByteBuffer buffer = buffers.get();
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(length - 1) << 1);
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        try {
+            long filePos = offset;
+            while (buffer.hasRemaining()) {
+                int r = channel.read(buffer, filePos);
+                if (r < 0)
+                    break;
+                filePos += r;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read " + fileName + " at " + offset, e);
+        }
+
+        metrics.recordRead(buffer.position());
+        return buffer;
+    }
+
+    /**
+     * @return index of the first '\n' in buffer between from and to, -1 if there is none
+     */
+    private int lineEnd(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = buffer.array();
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\n')
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * decode a record in the buffer, a trailing '\r' is dropped like BufferedReader.readLine does
+     */
+    private String decode(ByteBuffer buffer, int from, int end) {
+        byte[] bytes = buffer.array();
+        if (end > from && bytes[end - 1] == '\r')
+            end--;
+        return new String(bytes, from, end - from, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,487 @@
+package com.jeffin.storage;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: sequential write-ahead log of an index file, kept next to it as "<index file>.wal".
+ *        an insert or a delete is logged as a logical record before the txt file and the index blocks are changed,
+ *        it is durable once commit returns. concurrent commits share one fsync, the first committer syncs
+ *        everything appended so far and the others wait for it (group commit).
+ *        a checkpoint logs images of the dirty blocks and the header, then they are written in place and the log is emptied.
+ *        an insert or a delete whose txt write failed is cancelled by an abort record right after it.
+ *        record layout: 4 bytes length of type and payload, 1 byte type, payload, 4 bytes CRC32 of type and payload
+ */
+public class WriteAheadLog implements Closeable {
+    public static final String SUFFIX = ".wal";
+    private static final byte INSERT = 1;
+    private static final byte PAGE = 2;
+    private static final byte CHECKPOINT_END = 3;
+    private static final byte DELETE = 4;
+    private static final byte ABORT = 5;
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+    private final Set<String> dataFiles = new LinkedHashSet<>(); // txt files appended to since the last checkpoint
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(2 * 1024);
+
+    // log sequence numbers count every byte ever appended, so they keep growing when the log is emptied
+    private long appendedLsn;
+    private long durableLsn;
+    private boolean syncing;    // a committer is running fsync for the group
+
+    /**
+     * receives the content of the log on recovery
+     */
+    public interface Replayer {
+        /**
+         * a block image of a complete checkpoint
+         * @param pageAddr block start position
+         * @param page block content
+         */
+        void page(long pageAddr, ByteBuffer page);
+
+        /**
+         * end of a complete checkpoint, every block image of it has been passed to page
+         * @param rootAddr root node address at the checkpoint
+         * @param spaceOffset next available block offset at the checkpoint
+         * @param freeListHead first free block at the checkpoint, 0 if there is none
+         */
+        void checkpointEnd(long rootAddr, long spaceOffset, long freeListHead);
+
+        /**
+         * an insert logged after the last complete checkpoint, inserts and deletes are passed in log order
+         * @param record logged insert
+         */
+        void insert(InsertRecord record);
+
+        /**
+         * a delete logged after the last complete checkpoint, inserts and deletes are passed in log order
+         * @param record logged delete
+         */
+        void delete(DeleteRecord record);
+    }
+
+    /**
+     * open the log of an index file, the log file is created if it doesn't exist
+     * @param indexFileName index file name
+     * @throws IOException if the file can't be opened
+     */
+    public WriteAheadLog(String indexFileName) throws IOException {
+        this.fileName = indexFileName + SUFFIX;
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        this.channel.position(channel.size());
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * append an insert to the log, it isn't durable until commit is called with the returned sequence number
+     * @param dataFile txt file the record is appended to
+     * @param dataOffset where the record bytes are written in the txt file
+     * @param data record bytes written into the txt file
+     * @param key key
+     * @param value record start position stored in the index
+     * @return log sequence number of the insert
+     */
+    public long logInsert(String dataFile, long dataOffset, byte[] data, byte[] key, long value) {
+        byte[] name = dataFile.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer payload = begin(INSERT, 2 + name.length + 8 + 4 + data.length + 4 + key.length + 8);
+            payload.putShort((short) name.length);
+            payload.put(name);
+            payload.putLong(dataOffset);
+            payload.putInt(data.length);
+            payload.put(data);
+            payload.putInt(key.length);
+            payload.put(key);
+            payload.putLong(value);
+            append();
+            dataFiles.add(dataFile);
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * append a delete to the log, it isn't durable until commit is called with the returned sequence number
+     * @param dataFile txt file the record is blanked in
+     * @param dataOffset where the record starts in the txt file
+     * @param data bytes written over the record
+     * @param key key
+     * @return log sequence number of the delete
+     */
+    public long logDelete(String dataFile, long dataOffset, byte[] data, byte[] key) {
+        byte[] name = dataFile.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ByteBuffer payload = begin(DELETE, 2 + name.length + 8 + 4 + data.length + 4 + key.length);
+            payload.putShort((short) name.length);
+            payload.put(name);
+            payload.putLong(dataOffset);
+            payload.putInt(data.length);
+            payload.put(data);
+            payload.putInt(key.length);
+            payload.put(key);
+            append();
+            dataFiles.add(dataFile);
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * cancel the insert or delete appended last, its txt write failed and replay must not redo it.
+     * several aborts in a row cancel as many changes before them, the latest first
+     * the caller must keep other inserts and deletes from being appended in between, and commit the abort
+     * before reporting the failure, so the cancelled change can't be made durable by a concurrent commit alone
+     * @return log sequence number of the abort
+     */
+    public long logAbort() {
+        lock.lock();
+        try {
+            begin(ABORT, 0);
+            append();
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * wait until everything up to lsn is on disk. if no other committer is syncing, this one syncs
+     * everything appended so far, so records appended while another fsync runs go to disk with the next one
+     * @param lsn log sequence number returned by logInsert or logDelete
+     */
+    public void commit(long lsn) {
+        lock.lock();
+        try {
+            while (durableLsn < lsn) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+
+                syncing = true;
+                long target = appendedLsn;
+                lock.unlock();
+                try {
+                    channel.force(false);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to sync " + fileName, e);
+                } finally {
+                    lock.lock();
+                    syncing = false;
+                    synced.signalAll();
+                }
+                durableLsn = Math.max(durableLsn, target);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * log the image of a dirty block, part of a checkpoint
+     * @param pageAddr block start position
+     * @param page block content from its position to its limit
+     */
+    public void logPage(long pageAddr, ByteBuffer page) {
+        lock.lock();
+        try {
+            ByteBuffer payload = begin(PAGE, 8 + page.remaining());
+            payload.putLong(pageAddr);
+            payload.put(page.duplicate());
+            append();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * finish logging a checkpoint and sync the log, the logged blocks may be written in place once this returns.
+     * txt files changed since the last checkpoint are synced before the end record is appended: once it is durable
+     * replay drops the inserts and deletes logged before it, which hold the only other copy of their record bytes
+     * @param rootAddr root node address
+     * @param spaceOffset next available block offset
+     * @param freeListHead first free block, 0 if there is none
+     */
+    public void logCheckpointEnd(long rootAddr, long spaceOffset, long freeListHead) {
+        long lsn;
+        lock.lock();
+        try {
+            for (String dataFile : dataFiles) {
+                try (FileChannel data = FileChannel.open(Paths.get(dataFile), StandardOpenOption.WRITE)) {
+                    data.force(false);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to sync " + dataFile, e);
+                }
+            }
+            ByteBuffer payload = begin(CHECKPOINT_END, 24);
+            payload.putLong(rootAddr);
+            payload.putLong(spaceOffset);
+            payload.putLong(freeListHead);
+            append();
+            lsn = appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+        commit(lsn);
+    }
+
+    /**
+     * empty the log after a checkpoint has been written in place and the index file synced,
+     * the txt files it changed were already synced by logCheckpointEnd
+     */
+    public void truncate() {
+        lock.lock();
+        try {
+            dataFiles.clear();
+            channel.truncate(0L);
+            channel.position(0L);
+            channel.force(false);
+            durableLsn = appendedLsn;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to truncate " + fileName, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * read the log from the start. block images of a complete checkpoint are passed on when its end record is read,
+     * images of a checkpoint without end record are dropped since nothing of it was written in place.
+     * inserts and deletes before the last complete checkpoint are already in its blocks, only the later ones are passed on,
+     * except those cancelled by an abort.
+     * reading stops at the first torn or corrupt record
+     * @param replayer receives the content of the log
+     */
+    public void replay(Replayer replayer) {
+        List<Long> pageAddrs = new ArrayList<>();
+        List<ByteBuffer> pages = new ArrayList<>();
+        List<ByteBuffer> changes = new ArrayList<>(); // inserts and deletes since the last complete checkpoint, type byte first
+        try {
+            InputStream stream = Channels.newInputStream(channel.position(0L));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+            while (true) {
+                ByteBuffer record = readRecord(in);
+                if (record == null)
+                    break;
+
+                byte type = record.get();
+                if (type == INSERT || type == DELETE) {
+                    changes.add(record.rewind());
+                } else if (type == ABORT) {
+                    if (!changes.isEmpty())
+                        changes.remove(changes.size() - 1);
+                } else if (type == PAGE) {
+                    pageAddrs.add(record.getLong());
+                    pages.add(record.slice());
+                } else if (type == CHECKPOINT_END) {
+                    for (int i = 0; i < pages.size(); i++)
+                        replayer.page(pageAddrs.get(i), pages.get(i));
+                    replayer.checkpointEnd(record.getLong(), record.getLong(), record.getLong());
+                    pageAddrs.clear();
+                    pages.clear();
+                    changes.clear();
+                } else {
+                    break;
+                }
+            }
+            for (ByteBuffer change : changes) {
+                if (change.get() == INSERT) {
+                    InsertRecord insert = InsertRecord.decode(change);
+                    dataFiles.add(insert.getDataFile());
+                    replayer.insert(insert);
+                } else {
+                    DeleteRecord delete = DeleteRecord.decode(change);
+                    dataFiles.add(delete.getDataFile());
+                    replayer.delete(delete);
+                }
+            }
+            channel.position(channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read " + fileName, e);
+        }
+    }
+
+    /**
+     * @return type and payload of the next record, null at the end of the log or at a torn or corrupt record
+     */
+    private ByteBuffer readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > channel.size())
+                return null;
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            int checksum = in.readInt();
+            crc.reset();
+            crc.update(bytes, 0, length);
+            return (int) crc.getValue() == checksum ? ByteBuffer.wrap(bytes) : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * start a record in the reused buffer
+     * @return buffer positioned where the payload goes
+     */
+    private ByteBuffer begin(byte type, int payloadLength) {
+        int size = 4 + 1 + payloadLength + 4;
+        if (buffer.capacity() < size)
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(size - 1) << 1);
+        buffer.clear();
+        buffer.putInt(1 + payloadLength);
+        buffer.put(type);
+        return buffer;
+    }
+
+    /**
+     * finish the record in the buffer with its checksum and append it to the log
+     */
+    private void append() {
+        crc.reset();
+        crc.update(buffer.array(), 4, buffer.position() - 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        int size = buffer.remaining();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to append to " + fileName, e);
+        }
+        appendedLsn += size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A logged insert
+     */
+    public static class InsertRecord {
+        private final String dataFile;
+        private final long dataOffset;
+        private final byte[] data;
+        private final byte[] key;
+        private final long value;
+
+        private InsertRecord(String dataFile, long dataOffset, byte[] data, byte[] key, long value) {
+            this.dataFile = dataFile;
+            this.dataOffset = dataOffset;
+            this.data = data;
+            this.key = key;
+            this.value = value;
+        }
+
+        private static InsertRecord decode(ByteBuffer payload) {
+            byte[] name = new byte[payload.getShort()];
+            payload.get(name);
+            long dataOffset = payload.getLong();
+            byte[] data = new byte[payload.getInt()];
+            payload.get(data);
+            byte[] key = new byte[payload.getInt()];
+            payload.get(key);
+            long value = payload.getLong();
+            return new InsertRecord(new String(name, StandardCharsets.UTF_8), dataOffset, data, key, value);
+        }
+
+        public String getDataFile() {
+            return dataFile;
+        }
+
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public long getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * A logged delete, the record in the txt file is overwritten with data
+     */
+    public static class DeleteRecord {
+        private final String dataFile;
+        private final long dataOffset;
+        private final byte[] data;
+        private final byte[] key;
+
+        private DeleteRecord(String dataFile, long dataOffset, byte[] data, byte[] key) {
+            this.dataFile = dataFile;
+            this.dataOffset = dataOffset;
+            this.data = data;
+            this.key = key;
+        }
+
+        private static DeleteRecord decode(ByteBuffer payload) {
+            byte[] name = new byte[payload.getShort()];
+            payload.get(name);
+            long dataOffset = payload.getLong();
+            byte[] data = new byte[payload.getInt()];
+            payload.get(data);
+            byte[] key = new byte[payload.getInt()];
+            payload.get(key);
+            return new DeleteRecord(new String(name, StandardCharsets.UTF_8), dataOffset, data, key);
+        }
+
+        public String getDataFile() {
+            return dataFile;
+        }
+
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+    }
+}
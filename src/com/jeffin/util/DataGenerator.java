@@ -0,0 +1,191 @@
+package com.jeffin.util;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: synthetic key-record data for measuring the index.
+ *        a txt file of keyCount records holds the keys of ranks 0 to keyCount - 1, every key once, in the "key value" line format.
+ *        the key of a rank is 2 * rank in decimal, zero padded to the key size, so the keys of a file sort in rank order
+ *        and the odd numbers between them are keys which are not indexed yet, used for inserts.
+ *        a generator draws ranks with one of the distributions: SEQUENTIAL ascending, UNIFORM at random,
+ *        ZIPFIAN with a few hot ranks drawn most of the time, scattered over the key range so they don't share one leaf
+ */
+public class DataGenerator {
+    public enum Distribution { SEQUENTIAL, UNIFORM, ZIPFIAN }
+
+    public static final double ZIPFIAN_CONSTANT = 0.99; // skew of the Zipfian distribution, the usual YCSB value
+
+    private final Distribution distribution;
+    private final long keyCount;
+    private final Random random;
+    private final Permutation scramble;
+    private long sequence;          // next rank drawn by SEQUENTIAL
+
+    // Zipfian draws, see Gray et al., "Quickly Generating Billion-Record Synthetic Databases"
+    private double zetaN;
+    private double eta;
+    private double alpha;
+
+    /**
+     * @param distribution how ranks are drawn
+     * @param keyCount ranks are drawn from 0 to keyCount - 1
+     * @param seed seed of the random draws, the same seed draws the same ranks. SEQUENTIAL starts at the seed modulo keyCount
+     */
+    public DataGenerator(Distribution distribution, long keyCount, long seed) {
+        if (keyCount < 1)
+            throw new IllegalArgumentException("key count must be positive: " + keyCount);
+
+        this.distribution = distribution;
+        this.keyCount = keyCount;
+        this.random = new Random(seed);
+        this.scramble = new Permutation(keyCount, 0); // the same hot ranks for every generator of a key count
+        this.sequence = Math.floorMod(seed, keyCount);
+        if (distribution == Distribution.ZIPFIAN) {
+            double zeta2 = 1 + 1 / Math.pow(2, ZIPFIAN_CONSTANT);
+            for (long i = 1; i <= keyCount; i++)
+                zetaN += 1 / Math.pow(i, ZIPFIAN_CONSTANT);
+            alpha = 1 / (1 - ZIPFIAN_CONSTANT);
+            eta = (1 - Math.pow(2.0 / keyCount, 1 - ZIPFIAN_CONSTANT)) / (1 - zeta2 / zetaN);
+        }
+    }
+
+    /**
+     * @return next rank, from 0 to keyCount - 1. SEQUENTIAL starts again at 0 after the last rank
+     */
+    public long nextRank() {
+        switch (distribution) {
+            case SEQUENTIAL:
+                long rank = sequence;
+                sequence = sequence + 1 == keyCount ? 0 : sequence + 1;
+                return rank;
+            case UNIFORM:
+                return Math.floorMod(random.nextLong(), keyCount);
+            default:
+                return scramble.apply(zipfian());
+        }
+    }
+
+    /**
+     * @return Zipfian rank, 0 is the most frequent
+     */
+    private long zipfian() {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1)
+            return 0;
+        if (uz < 1 + Math.pow(0.5, ZIPFIAN_CONSTANT))
+            return Math.min(1, keyCount - 1);
+        return Math.min((long) (keyCount * Math.pow(eta * u - eta + 1, alpha)), keyCount - 1);
+    }
+
+    /**
+     * @param rank rank
+     * @param keySize length of the key, at least as many digits as 2 * rank + 1 has
+     * @return key of the rank, stored in txt files generated for that many keys
+     */
+    public static String key(long rank, int keySize) {
+        return pad(2 * rank, keySize);
+    }
+
+    /**
+     * @param rank rank
+     * @param keySize length of the key
+     * @return key sorting right after the key of the rank, not stored in generated txt files
+     */
+    public static String absentKey(long rank, int keySize) {
+        return pad(2 * rank + 1, keySize);
+    }
+
+    private static String pad(long number, int keySize) {
+        String digits = Long.toString(number);
+        if (digits.length() > keySize)
+            throw new IllegalArgumentException("key size " + keySize + " is too short for key " + digits);
+
+        StringBuilder key = new StringBuilder(keySize);
+        for (int i = digits.length(); i < keySize; i++)
+            key.append('0');
+        return key.append(digits).toString();
+    }
+
+    /**
+     * write a txt file holding every key of 0 to keyCount - 1 once.
+     * SEQUENTIAL writes the keys in ascending order, UNIFORM and ZIPFIAN in a random order,
+     * a Zipfian file can't repeat keys, so it only differs from a uniform one in what is drawn from it later
+     * @param fileName txt file, replaced if it exists
+     * @param keyCount number of records
+     * @param keySize length of every key
+     * @param valueSize length of the value following every key
+     * @param distribution order of the keys
+     * @param seed seed of the order and the values
+     */
+    public static void writeDataFile(String fileName, long keyCount, int keySize, int valueSize,
+                                     Distribution distribution, long seed) {
+        Permutation order = new Permutation(keyCount, seed);
+        Random random = new Random(seed);
+        char[] value = new char[valueSize];
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8), 1 << 16)) {
+            for (long i = 0; i < keyCount; i++) {
+                if (i > 0)
+                    writer.write('\n'); // no line break after the last record, inserts add one in front of their record
+                long rank = distribution == Distribution.SEQUENTIAL ? i : order.apply(i);
+                writer.write(key(rank, keySize));
+                writer.write(' ');
+                for (int j = 0; j < valueSize; j++)
+                    value[j] = (char) ('a' + random.nextInt(26));
+                writer.write(value);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * random permutation of 0 to n - 1 computed on the fly: a 4 round Feistel network permutes the smallest
+     * power of 2 range holding n, values outside of n are permuted again until one falls inside, so no table is kept
+     * however many keys there are
+     */
+    private static class Permutation {
+        private final long n;
+        private final int halfBits;
+        private final long halfMask;
+        private final long[] roundKeys = new long[4];
+
+        Permutation(long n, long seed) {
+            this.n = n;
+            int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(n - 1));
+            this.halfBits = (bits + 1) / 2;
+            this.halfMask = (1L << halfBits) - 1;
+            Random random = new Random(seed ^ 0x5DEECE66DL);
+            for (int i = 0; i < roundKeys.length; i++)
+                roundKeys[i] = random.nextLong();
+        }
+
+        long apply(long x) {
+            do {
+                long left = x >>> halfBits;
+                long right = x & halfMask;
+                for (long roundKey : roundKeys) {
+                    long mixed = left ^ (mix(right ^ roundKey) & halfMask);
+                    left = right;
+                    right = mixed;
+                }
+                x = (left << halfBits) | right;
+            } while (x >= n);
+            return x;
+        }
+
+        private static long mix(long x) {
+            x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+            x = (x ^ (x >>> 33)) * 0xC4CEB93A85F53E63L;
+            return x ^ (x >>> 33);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.jeffin.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: sort key-record pairs with bounded memory.
+ *        pairs are buffered until the memory budget is used up, then the buffer is sorted and spilled to a run file,
+ *        the iterator k-way merges the run files into one ascending stream without duplicate keys while it is read.
+ *        the read buffers of a merge count against the memory budget too and at most MAX_FAN_IN runs are open at once,
+ *        with more runs than that finish() first merges groups of neighbouring runs into longer runs until few enough are left.
+ *        when a key occurs more than once the pair added last wins, same as putting every pair into a map
+ */
+public class ExternalSorter implements Closeable {
+    private static final long ENTRY_OVERHEAD = 96; // object headers, references, the offset of one buffered pair and the key array header
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_IO_BUFFER_SIZE = 4 * 1024; // smallest read or write buffer, a tiny budget may be exceeded by this much per run
+    private static final int MAX_FAN_IN = 64;  // runs merged at once, bounds the files open at the same time
+
+    private final long memoryBudget;
+    private long bufferedBytes;  // memory taken by the buffered pairs
+    private final File tempDir;
+    private final List<KeyRecord> buffer = new ArrayList<>();
+    private final List<File> runFiles = new ArrayList<>();
+    private long sequence;  // order in which pairs were added, breaks ties between equal keys
+    private boolean finished;
+    private final int fanIn;         // runs merged at once
+    private final int ioBufferSize;  // buffer of every run read or written, fanIn read buffers and one write buffer fit into the budget
+    private final Set<RunReader> openReaders = new HashSet<>(); // closed by close() if a merge is left unfinished
+
+    /**
+     * ExternalSorter constructor
+     * @param memoryBudget how many bytes buffered pairs, or the buffers of the runs being merged, may occupy
+     * @param tempDir directory for run files
+     */
+    public ExternalSorter(long memoryBudget, File tempDir) {
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+        this.fanIn = (int) Math.max(2, Math.min(MAX_FAN_IN, memoryBudget / IO_BUFFER_SIZE - 1));
+        this.ioBufferSize = (int) Math.max(MIN_IO_BUFFER_SIZE, Math.min(IO_BUFFER_SIZE, memoryBudget / (fanIn + 1)));
+    }
+
+    /**
+     * add a key-record pair
+     * @param key key of any length
+     * @param recordOffset start position of the record
+     */
+    public void add(byte[] key, long recordOffset) {
+        if (finished)
+            throw new IllegalStateException("sorter is already finished");
+
+        buffer.add(new KeyRecord(key, recordOffset, sequence++));
+        bufferedBytes += ENTRY_OVERHEAD + key.length;
+        if (bufferedBytes >= memoryBudget || buffer.size() >= Integer.MAX_VALUE - 8)
+            spill();
+    }
+
+    /**
+     * stop accepting pairs. if everything fit in memory no run file is written and the buffer is sorted,
+     * otherwise the rest of the buffer is spilled as the last run. runs are merged in groups of fanIn until
+     * the iterator can merge all of them at once, with at most fanIn runs this reads every run only once, by the iterator
+     */
+    public void finish() {
+        if (finished)
+            return;
+
+        if (runFiles.isEmpty())
+            sortAndDeduplicate(buffer);
+        else if (!buffer.isEmpty())
+            spill();
+        while (runFiles.size() > fanIn)
+            mergePass();
+        finished = true;
+    }
+
+    /**
+     * merge every group of fanIn neighbouring runs into one run, later groups stay after earlier ones,
+     * so a later run still wins on equal keys
+     */
+    private void mergePass() {
+        List<File> merged = new ArrayList<>();
+        for (int from = 0; from < runFiles.size(); from += fanIn) {
+            List<File> group = new ArrayList<>(runFiles.subList(from, Math.min(from + fanIn, runFiles.size())));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            MergeIterator iterator = new MergeIterator(group);
+            File runFile = writeRun(iterator);
+            iterator.close();
+            for (File input : group)
+                FileUtil.deleteFile(input.getPath());
+            merged.add(runFile);
+        }
+        runFiles.clear();
+        runFiles.addAll(merged);
+    }
+
+    /**
+     * @return sorted pairs without duplicate keys, finish() must have been called
+     */
+    public Iterator<Map.Entry<byte[], Long>> iterator() {
+        if (!finished)
+            throw new IllegalStateException("finish() must be called first");
+
+        if (runFiles.isEmpty()) {
+            final Iterator<KeyRecord> it = buffer.iterator();
+            return new Iterator<Map.Entry<byte[], Long>>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Map.Entry<byte[], Long> next() {
+                    KeyRecord kr = it.next();
+                    return new AbstractMap.SimpleImmutableEntry<>(kr.key, kr.recordOffset);
+                }
+            };
+        }
+
+        return new MergeIterator(runFiles);
+    }
+
+    /**
+     * sort the buffered pairs and write them into a new run file
+     */
+    private void spill() {
+        sortAndDeduplicate(buffer);
+        Iterator<KeyRecord> it = buffer.iterator();
+        runFiles.add(writeRun(new Iterator<Map.Entry<byte[], Long>>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Map.Entry<byte[], Long> next() {
+                KeyRecord kr = it.next();
+                return new AbstractMap.SimpleImmutableEntry<>(kr.key, kr.recordOffset);
+            }
+        }));
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    /**
+     * write sorted pairs into a new run file
+     * @param entries pairs in ascending key order without duplicate keys
+     * @return run file
+     */
+    private File writeRun(Iterator<Map.Entry<byte[], Long>> entries) {
+        try {
+            File runFile = File.createTempFile("index-sort-", ".run", tempDir);
+            runFile.deleteOnExit();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), ioBufferSize))) {
+                while (entries.hasNext()) {
+                    Map.Entry<byte[], Long> entry = entries.next();
+                    out.writeShort(entry.getKey().length);
+                    out.write(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            }
+            return runFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write sort run", e);
+        }
+    }
+
+    /**
+     * sort pairs by key, equal keys only keep the pair added last
+     * @param list pairs
+     */
+    private static void sortAndDeduplicate(List<KeyRecord> list) {
+        list.sort((a, b) -> {
+            int c = KeyComparator.compare(a.key, b.key);
+            return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+        });
+
+        int last = -1;
+        for (KeyRecord kr : list) {
+            if (last >= 0 && Arrays.equals(list.get(last).key, kr.key))
+                list.set(last, kr);
+            else
+                list.set(++last, kr);
+        }
+        list.subList(last + 1, list.size()).clear();
+    }
+
+    /**
+     * close the runs an unfinished iteration still reads and delete the run files
+     */
+    @Override
+    public void close() {
+        for (RunReader reader : new ArrayList<>(openReaders))
+            reader.close();
+        for (File runFile : runFiles)
+            FileUtil.deleteFile(runFile.getPath());
+        runFiles.clear();
+        buffer.clear();
+    }
+
+    /**
+     * A buffered key-record pair
+     */
+    private static class KeyRecord {
+        private final byte[] key;
+        private final long recordOffset;
+        private final long sequence;
+
+        KeyRecord(byte[] key, long recordOffset, long sequence) {
+            this.key = key;
+            this.recordOffset = recordOffset;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Sequential reader of one run file
+     */
+    private class RunReader implements Closeable {
+        private final int runIndex;    // runs are written in input order, a later run wins on equal keys
+        private final DataInputStream in;
+        private byte[] key;
+        private long recordOffset;
+
+        RunReader(int runIndex, File runFile) throws IOException {
+            this.runIndex = runIndex;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), ioBufferSize));
+            openReaders.add(this);
+        }
+
+        /**
+         * @return false if the run is exhausted
+         */
+        boolean advance() throws IOException {
+            try {
+                int length = in.readUnsignedShort();
+                byte[] next = new byte[length]; // the previous key may still be held by the merged output
+                in.readFully(next);
+                recordOffset = in.readLong();
+                key = next;
+                return true;
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+        }
+
+        @Override
+        public void close() {
+            openReaders.remove(this);
+            try {
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * K-way merge over at most fanIn run files
+     */
+    private class MergeIterator implements Iterator<Map.Entry<byte[], Long>> {
+        private final PriorityQueue<RunReader> heap;
+        private Map.Entry<byte[], Long> nextEntry;
+
+        /**
+         * @param runs run files in the order they were written
+         */
+        MergeIterator(List<File> runs) {
+            heap = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+                int c = KeyComparator.compare(a.key, b.key);
+                return c != 0 ? c : Integer.compare(a.runIndex, b.runIndex);
+            });
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    RunReader reader = new RunReader(i, runs.get(i));
+                    if (reader.advance())
+                        heap.add(reader);
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("failed to open sort runs", e);
+            }
+            nextEntry = pollDistinct();
+        }
+
+        /**
+         * close the runs which are not read to their end yet
+         */
+        void close() {
+            for (RunReader reader : heap)
+                reader.close();
+            heap.clear();
+        }
+
+        /**
+         * take the smallest key from the heap, if several runs hold it the one from the latest run is kept
+         * @return next entry, null if every run is exhausted
+         */
+        private Map.Entry<byte[], Long> pollDistinct() {
+            if (heap.isEmpty())
+                return null;
+
+            try {
+                byte[] key = null;
+                long recordOffset = 0L;
+                while (!heap.isEmpty() && (key == null || Arrays.equals(heap.peek().key, key))) {
+                    RunReader reader = heap.poll();
+                    key = reader.key;
+                    recordOffset = reader.recordOffset;
+                    if (reader.advance())
+                        heap.add(reader);
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(key, recordOffset);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read sort run", e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextEntry != null;
+        }
+
+        @Override
+        public Map.Entry<byte[], Long> next() {
+            if (nextEntry == null)
+                throw new NoSuchElementException();
+
+            Map.Entry<byte[], Long> entry = nextEntry;
+            nextEntry = pollDistinct();
+            return entry;
+        }
+    }
+}
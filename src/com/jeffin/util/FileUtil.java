@@ -1,8 +1,9 @@
 package com.jeffin.util;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Author: baojianfeng
@@ -31,76 +32,79 @@ public class FileUtil {
         return dataBlock;
     }
 
-    /**
-     * get a specific record by key from text file
-     * @param filePath file path
-     * @param offset the start position of the record
-     * @return record string
-     */
-    public static String getRecordByPosition(String filePath, long offset) {
-        String record = "";
-        try {
-            FileInputStream fis = new FileInputStream(filePath);
-            fis.skip(offset);
-            BufferedReader br = new BufferedReader(new InputStreamReader(fis));
-            record = br.readLine();
-
-            br.close();
-            fis.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        return record;
-    }
-
     /**
      * write byte array into a file starting at the offset
      * @param fileName file
      * @param data data byte array
      * @param offset starting position
+     * @throws UncheckedIOException if the data can't be written, callers have already logged the change and must not go on
      */
     public static void writeDataIntoFile(String fileName, byte[] data, long offset) {
-        try {
-            RandomAccessFile randFile = new RandomAccessFile(fileName, "rw");
+        try (RandomAccessFile randFile = new RandomAccessFile(fileName, "rw")) {
             randFile.seek(offset);
             randFile.write(data);
-            randFile.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write " + fileName + " at " + offset, e);
         }
     }
 
     /**
-     * form a key-value map from the data in a file
+     * read the key-record pairs of a file line by line, nothing is kept in memory.
+     * the file is scanned as bytes, so record positions are byte offsets whatever the encoding,
+     * a key is the part of a line before its first blank. empty lines and lines of blanks, which deleted records leave behind, are skipped
      * @param filePath file
-     * @param keySize key length
-     * @return map containing key-value pairs
+     * @param maxKeySize longest key allowed, a longer key is rejected instead of being truncated
+     * @param consumer receives every key and the start position of its record, in file order
+     * @throws IllegalArgumentException if a line has an empty key or a key longer than maxKeySize
+     * @throws UncheckedIOException if the file can't be read to its end, no index is built from part of it
      */
-    public static Map<String, Long> getKeyValueMap(String filePath, int keySize) {
-        Map<String, Long> map = new HashMap<>();
-        int offset = 0; // store the current offset of the first position of every line
-        try {
-            FileInputStream fis = new FileInputStream(filePath);
-            BufferedReader br = new BufferedReader(new InputStreamReader(fis));
-            String str;
-            while ((str = br.readLine()) != null) {
-                String key = str.substring(0, 15);
-                String modifiedKey = StringUtil.modifyKeyStr(key, keySize);
-
-                long recordOffset = (long) offset; // key length is 15 + space is 1
-                // TODO whether need to prevent duplicate keys from replacing the previous key-value in the map
-                map.put(modifiedKey, recordOffset);
-                offset += str.length() + 1; // 1 is for '\n' character
+    public static void readKeyRecords(String filePath, int maxKeySize, ObjLongConsumer<byte[]> consumer) {
+        byte[] chunk = new byte[64 * 1024];
+        byte[] head = new byte[maxKeySize];
+        int headLength = 0;
+        boolean keyEnded = false;  // the blank after the key was seen
+        boolean tooLong = false;
+        boolean blankLine = true;  // nothing but blanks seen in the line so far
+        long lineStart = 0L; // store the current offset of the first position of every line
+        long offset = 0L;
+        try (InputStream in = new FileInputStream(filePath)) {
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                for (int i = 0; i < n; i++, offset++) {
+                    byte b = chunk[i];
+                    if (b == '\n') {
+                        if (!blankLine)
+                            acceptKey(head, headLength, tooLong, maxKeySize, lineStart, consumer);
+                        lineStart = offset + 1; // 1 is for '\n' character
+                        headLength = 0;
+                        keyEnded = false;
+                        tooLong = false;
+                        blankLine = true;
+                    } else {
+                        if (b != ' ' && b != '\r')
+                            blankLine = false;
+                        if (!keyEnded) {
+                            if (b == ' ' || b == '\r')
+                                keyEnded = true;
+                            else if (headLength < head.length)
+                                head[headLength++] = b;
+                            else
+                                tooLong = true;
+                        }
+                    }
+                }
             }
-
-            br.close();
-            fis.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (!blankLine) // last line without '\n'
+                acceptKey(head, headLength, tooLong, maxKeySize, lineStart, consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read " + filePath + " at " + offset, e);
         }
+    }
 
-        return map;
+    private static void acceptKey(byte[] head, int headLength, boolean tooLong, int maxKeySize, long lineStart, ObjLongConsumer<byte[]> consumer) {
+        if (headLength == 0 || tooLong)
+            throw new IllegalArgumentException("key of the record at " + lineStart + " is empty or longer than " + maxKeySize + " bytes");
+        consumer.accept(Arrays.copyOf(head, headLength), lineStart);
     }
 
     /**
@@ -141,46 +145,4 @@ public class FileUtil {
             file.delete();
         }
     }
-
-    /**
-     * get root address, used to find the current root's position
-     * @param indexFile index file
-     * @return root address
-     */
-    public static long getRootAddr(String indexFile) {
-        byte[] rootAddrBytes = getDataBlock(indexFile, 8, 264); // file name 256 bytes, key length 8 bytes
-        long rootAddr = 0L;
-        if (rootAddrBytes != null)
-            rootAddr = DataTypeConvertUtil.bytesToLong(rootAddrBytes);
-
-        return rootAddr;
-    }
-
-    /**
-     * get the key size of root node
-     * @param indexFile index file name
-     * @param rootAddr root address in index file
-     * @return root key size
-     */
-    public static int getRootKeysSize(String indexFile, long rootAddr) {
-        // the first byte is to determine whether the node is tree node, the second is to store keys size
-        // so the offset is rootAddr + 1
-        byte[] rootKeysSize = getDataBlock(indexFile, 1, rootAddr + 1);
-
-        return rootKeysSize[0];
-    }
-
-    /**
-     * get current space offset, used to find where to allocate a new empty block
-     * @param indexFile index file
-     * @return space offset
-     */
-    public static long getCurrentSpaceOffset(String indexFile) {
-        byte[] spaceOffsetBytes = getDataBlock(indexFile, 8, 272);
-        long spaceOffset = 0L;
-        if (spaceOffsetBytes != null)
-            spaceOffset = DataTypeConvertUtil.bytesToLong(spaceOffsetBytes);
-
-        return spaceOffset;
-    }
 }
@@ -0,0 +1,89 @@
+package com.jeffin.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: the one key order used by the b+ tree, the external sorter and node blocks.
+ *        keys are byte arrays compared byte by byte as unsigned values, which is the order of the
+ *        bytes in a block, so a key compares the same in memory and on disk on every JVM.
+ *        a key which is a prefix of a longer one is the smaller one, truncated separators rely on it
+ */
+public class KeyComparator {
+    public static final Comparator<byte[]> ORDER = KeyComparator::compare;
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * compare two keys
+     * @param a key
+     * @param b key
+     * @return negative, zero or positive if a is less than, equal to or greater than b
+     */
+    public static int compare(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    /**
+     * compare bytes stored in a block with a part of a search key without copying them, a shorter run of bytes
+     * which is a prefix of the other one is the smaller one. heap blocks are compared with Arrays.compareUnsigned
+     * on the backing array, direct and mapped blocks 8 bytes at a time as big-endian longs
+     * @param block buffer holding the stored bytes, only absolute reads are done on it
+     * @param offset where the stored bytes start in the buffer
+     * @param length how many bytes are stored
+     * @param key search key
+     * @param keyOffset where the compared part of the search key starts
+     * @param keyLength length of the compared part of the search key
+     * @return negative, zero or positive if the stored bytes are less than, equal to or greater than the part of the search key
+     */
+    public static int compare(ByteBuffer block, int offset, int length, byte[] key, int keyOffset, int keyLength) {
+        if (block.hasArray()) {
+            int from = block.arrayOffset() + offset;
+            return Arrays.compareUnsigned(block.array(), from, from + length, key, keyOffset, keyOffset + keyLength);
+        }
+
+        int n = Math.min(length, keyLength);
+        int j = 0;
+        if (block.order() == ByteOrder.BIG_ENDIAN) {
+            for (; j + Long.BYTES <= n; j += Long.BYTES) {
+                long stored = block.getLong(offset + j);
+                long search = (long) LONG_VIEW.get(key, keyOffset + j);
+                if (stored != search)
+                    return Long.compareUnsigned(stored, search);
+            }
+        }
+        for (; j < n; j++) {
+            int c = (block.get(offset + j) & 0xff) - (key[keyOffset + j] & 0xff);
+            if (c != 0)
+                return c;
+        }
+
+        return length - keyLength;
+    }
+
+    /**
+     * binary search a sorted key list
+     * @param keys keys in ascending order
+     * @param key search key
+     * @return index of the key if found, otherwise (-(insertion point) - 1)
+     */
+    public static int binarySearch(List<byte[]> keys, byte[] key) {
+        return Collections.binarySearch(keys, key, ORDER);
+    }
+
+    /**
+     * turn a binary search result into the index of the first key greater than or equal to the search key
+     * @param searchResult result of a binary search
+     * @return lower bound index
+     */
+    public static int lowerBound(int searchResult) {
+        return searchResult >= 0 ? searchResult : -searchResult - 1;
+    }
+}
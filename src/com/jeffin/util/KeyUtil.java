@@ -0,0 +1,61 @@
+package com.jeffin.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: build the byte keys stored in the index.
+ *        a key is stored at its own length, it is never padded or truncated.
+ *        strings are always encoded as UTF-8, so the same key gives the same bytes on every JVM
+ */
+public class KeyUtil {
+
+    /**
+     * convert a key string into a key
+     * @param key original key string
+     * @return UTF-8 bytes of the key
+     */
+    public static byte[] toKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * a key starts a line of the txt file and ends at the first blank, so it can't contain blanks or line breaks
+     * @param key key
+     * @param maxKeySize longest key allowed
+     * @return true if the key is 1 to maxKeySize bytes without blanks or line breaks
+     */
+    public static boolean isValidKey(byte[] key, int maxKeySize) {
+        if (key.length < 1 || key.length > maxKeySize)
+            return false;
+        for (byte b : key) {
+            if (b == ' ' || b == '\n' || b == '\r')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return how many leading bytes two keys have in common
+     */
+    public static int commonPrefixLength(byte[] a, byte[] b) {
+        int i = Arrays.mismatch(a, b);
+        return i < 0 ? a.length : i;
+    }
+
+    /**
+     * shortest separator between two neighbouring nodes, it is greater than or equal to every key of the left node
+     * and less than every key of the right node, so it can replace the largest key of the left node in the parent
+     * @param leftMax largest key of the left node
+     * @param rightMin smallest key of the right node, greater than leftMax
+     * @return shortest prefix of rightMin greater than leftMax, leftMax itself if no proper prefix of rightMin is
+     */
+    public static byte[] shortestSeparator(byte[] leftMax, byte[] rightMin) {
+        int length = commonPrefixLength(leftMax, rightMin) + 1;
+        if (length >= rightMin.length)
+            return leftMax;
+        return Arrays.copyOf(rightMin, length);
+    }
+}
@@ -0,0 +1,136 @@
+package com.jeffin;
+
+import com.jeffin.storage.IndexFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of the b+ tree through IndexOperation, files are named relative to user.dir like the command line does
+ */
+public class BPlusTreeTest {
+    private static final int PAGE_SIZE = 1024;
+    private static final int KEY_SIZE = 323; // longest key a 1KB page allows
+
+    @TempDir
+    Path dir;
+
+    /**
+     * @return file name in the temporary directory, relative to user.dir
+     */
+    private String fileName(String name) {
+        return Paths.get(System.getProperty("user.dir")).toAbsolutePath().relativize(dir.resolve(name).toAbsolutePath()).toString();
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++)
+            sb.append(c);
+        return sb.toString();
+    }
+
+    /**
+     * keys are stored at their own length, a leaf of three long keys and five short ones split at its middle key
+     * leaves the three long keys and a short one on the left, which don't fit into a page together
+     */
+    @Test
+    public void splitMixedKeyLengthsOnSmallPage() throws IOException {
+        String txtFile = fileName("data.txt");
+        String indexFile = fileName("data.idx");
+        Files.write(dir.resolve("data.txt"), "0 first".getBytes(StandardCharsets.UTF_8)); // inserts append after a line break
+        String[] keys = {repeat('a', KEY_SIZE), repeat('b', KEY_SIZE), repeat('d', 40), "e", "f", "g", "h", repeat('c', KEY_SIZE)};
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            operation.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, PAGE_SIZE);
+            for (String key : keys) {
+                String result = operation.insertNewRecord(key, "value", txtFile, indexFile);
+                assertTrue(result.startsWith("insert succeeded"), result);
+            }
+        }
+
+        // reopening replays nothing since close flushed, every key is found in the split leaves
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            for (String key : keys) {
+                String result = operation.findRecordByKey(key, indexFile, txtFile);
+                assertTrue(result.endsWith(key + " value"), result);
+            }
+        }
+    }
+
+    /**
+     * every supported page size builds, inserts into and reopens an index, a larger page holds more keys per node
+     * so the tree gets shallower, and the file is made of whole pages
+     */
+    @Test
+    public void pageSizes() throws IOException {
+        int keys = 20000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keys; i += 2)
+            sb.append(String.format("k%07d", i)).append(" value\n");
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        int previousHeight = Integer.MAX_VALUE;
+        int smallestPageHeight = 0;
+        for (int pageSize = IndexFile.MIN_PAGE_SIZE; pageSize <= IndexFile.MAX_PAGE_SIZE; pageSize *= 2) {
+            Files.write(dir.resolve("data-" + pageSize + ".txt"), data); // inserts append to the txt file, every page size gets its own
+            String txtFile = fileName("data-" + pageSize + ".txt");
+            String indexFile = fileName("data-" + pageSize + ".idx");
+            int height;
+            try (IndexOperation operation = new IndexOperation(16)) {
+                operation.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, pageSize);
+                for (int i = 1; i < 400; i += 2) {
+                    String result = operation.insertNewRecord(String.format("k%07d", i), "value", txtFile, indexFile);
+                    assertTrue(result.startsWith("insert succeeded"), result);
+                }
+                height = operation.getTreeHeight();
+            }
+            assertTrue(height <= previousHeight, "page size " + pageSize + " has height " + height + ", a smaller page " + previousHeight);
+            previousHeight = height;
+            if (pageSize == IndexFile.MIN_PAGE_SIZE)
+                smallestPageHeight = height;
+            assertEquals(0L, Files.size(dir.resolve("data-" + pageSize + ".idx")) % pageSize);
+
+            // the page size is read back from the header
+            try (IndexOperation operation = new IndexOperation(16)) {
+                for (int i = 0; i < keys; i += i < 400 ? 1 : 2) {
+                    String key = String.format("k%07d", i);
+                    String result = operation.findRecordByKey(key, indexFile, txtFile);
+                    assertTrue(result.endsWith(key + " value"), result);
+                }
+                assertEquals(pageSize, operation.getBufferPool().getPageSize());
+            }
+        }
+        assertTrue(previousHeight < smallestPageHeight, "64KB pages have height " + previousHeight + ", 1KB pages " + smallestPageHeight);
+    }
+
+    /**
+     * page sizes which are no power of 2 or out of range, and keys too long for three of them in a node, are refused
+     */
+    @Test
+    public void invalidPageSizes() throws IOException {
+        Files.write(dir.resolve("data.txt"), "a value".getBytes(StandardCharsets.UTF_8));
+        String txtFile = fileName("data.txt");
+        String indexFile = fileName("data.idx");
+        for (int pageSize : new int[]{512, 3000, 128 * 1024}) {
+            try (IndexOperation operation = new IndexOperation(16)) {
+                assertThrows(IllegalArgumentException.class, () -> operation.createIndexFile(txtFile, indexFile,
+                        IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, pageSize));
+            }
+        }
+        try (IndexOperation operation = new IndexOperation(BPlusTree.maxKeySize(IndexFile.MIN_PAGE_SIZE) + 1)) {
+            assertThrows(IllegalArgumentException.class, () -> operation.createIndexFile(txtFile, indexFile,
+                    IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, IndexFile.MIN_PAGE_SIZE));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.jeffin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of online compaction through IndexOperation
+ */
+public class CompactionTest {
+    private static final int PAGE_SIZE = 1024;
+    private static final int KEY_SIZE = 16;
+    private static final int KEYS = 2000;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * @return file name in the temporary directory, relative to user.dir
+     */
+    private String fileName(String name) {
+        return Paths.get(System.getProperty("user.dir")).toAbsolutePath().relativize(dir.resolve(name).toAbsolutePath()).toString();
+    }
+
+    private static String key(int i) {
+        return String.format("k%06d", i);
+    }
+
+    /**
+     * @return number of descriptors this process holds on the replaced index file, which was unlinked by the rename
+     */
+    private static int openDeletedIndexFiles(Path indexPath) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> fds = Files.newDirectoryStream(Paths.get("/proc/self/fd"))) {
+            for (Path fd : fds) {
+                try {
+                    if (Files.readSymbolicLink(fd).toString().equals(indexPath.toAbsolutePath() + " (deleted)"))
+                        count++;
+                } catch (IOException e) {
+                    // closed meanwhile, e.g. the descriptor of the directory stream itself
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * a scan open while the index is compacted keeps reading the old file to its end, inserts go to the packed new file,
+     * and the old file is closed once the scan has ended
+     */
+    @Test
+    public void compactWhileScanIsOpen() throws IOException {
+        assumeTrue(Files.isDirectory(Paths.get("/proc/self/fd")), "open files are looked up in /proc");
+        String txtFile = fileName("data.txt");
+        String indexFile = fileName("data.idx");
+        Path indexPath = dir.resolve("data.idx");
+        Files.write(dir.resolve("data.txt"), "0 first".getBytes(StandardCharsets.UTF_8));
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < KEYS; i++)
+            order.add(i);
+        Collections.shuffle(order, new Random(42));
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            operation.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, PAGE_SIZE);
+            for (int i : order)
+                operation.insertNewRecord(key(i), "value", txtFile, indexFile); // random inserts leave half empty, scattered leaves
+            TreeStatistics before = operation.getTreeStatistics();
+
+            Iterator<String> scan = operation.scanRecords(null, true, null, true, false, txtFile, indexFile);
+            List<String> scanned = new ArrayList<>();
+            for (int i = 0; i < 100; i++)
+                scanned.add(scan.next());
+
+            operation.compactIndexFile(indexFile);
+            assertFalse(Files.exists(dir.resolve("data.idx" + IndexOperation.COMPACT_SUFFIX)));
+            TreeStatistics after = operation.getTreeStatistics();
+            assertEquals(before.getKeyCount(), after.getKeyCount());
+            assertTrue(after.getLeafCount() < before.getLeafCount(), "leaves before " + before.getLeafCount() + ", after " + after.getLeafCount());
+
+            String result = operation.insertNewRecord("k999999", "value", txtFile, indexFile);
+            assertTrue(result.startsWith("insert succeeded"), result);
+            assertEquals(1, openDeletedIndexFiles(indexPath)); // the scan still reads the old file
+
+            while (scan.hasNext())
+                scanned.add(scan.next());
+            assertEquals(KEYS + 1, scanned.size()); // "0 first" and the inserted keys, the key inserted into the new file is not in the old one
+            for (int i = 0; i < KEYS; i++)
+                assertTrue(scanned.get(i + 1).endsWith(key(i) + " value"), scanned.get(i + 1));
+            assertEquals(0, openDeletedIndexFiles(indexPath));
+
+            for (int i = 0; i < KEYS; i++) {
+                result = operation.findRecordByKey(key(i), indexFile, txtFile);
+                assertTrue(result.endsWith(key(i) + " value"), result);
+            }
+            assertTrue(operation.findRecordByKey("k999999", indexFile, txtFile).endsWith("k999999 value"));
+        }
+    }
+}
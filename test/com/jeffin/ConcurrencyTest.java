@@ -0,0 +1,127 @@
+package com.jeffin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of one IndexOperation shared by several threads. small pages make inserts split and deletes merge
+ *        all the time, so writers keep latching the same leaves and paths while readers descend through them
+ */
+public class ConcurrencyTest {
+    private static final int PAGE_SIZE = 1024;
+    private static final int KEY_SIZE = 16;
+    private static final int THREADS = 8;
+    private static final int INITIAL_KEYS = 4000;
+    private static final int KEYS_PER_THREAD = 600;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * @return file name in the temporary directory, relative to user.dir
+     */
+    private String fileName(String name) {
+        return Paths.get(System.getProperty("user.dir")).toAbsolutePath().relativize(dir.resolve(name).toAbsolutePath()).toString();
+    }
+
+    private static String initialKey(int i) {
+        return String.format("b%06d", i);
+    }
+
+    /**
+     * keys of different threads alternate, so neighbouring keys in a leaf come from different threads
+     */
+    private static String threadKey(int i, int thread) {
+        return String.format("a%05d%02d", i, thread);
+    }
+
+    /**
+     * writers insert their own keys and delete every third of them, and delete the even initial keys of their share,
+     * readers keep finding the odd initial keys meanwhile. every key ends up where the operations left it
+     */
+    @Test
+    public void concurrentInsertDeleteAndFind() throws Exception {
+        String txtFile = fileName("data.txt");
+        String indexFile = fileName("data.idx");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < INITIAL_KEYS; i++)
+            sb.append(initialKey(i)).append(" initial\n");
+        Files.write(dir.resolve("data.txt"), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            operation.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, PAGE_SIZE);
+            operation.setDirtyPageThreshold(8); // checkpoints run between the operations as well
+
+            ExecutorService pool = Executors.newFixedThreadPool(2 * THREADS);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    int thread = t;
+                    futures.add(pool.submit(() -> {
+                        for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                            String result = operation.insertNewRecord(threadKey(i, thread), "value", txtFile, indexFile);
+                            assertTrue(result.startsWith("insert succeeded"), result);
+                            if (i % 3 == 0) {
+                                result = operation.deleteRecord(threadKey(i, thread), txtFile, indexFile);
+                                assertTrue(result.startsWith("delete succeeded"), result);
+                            }
+                        }
+                        for (int i = 2 * thread; i < INITIAL_KEYS; i += 2 * THREADS) {
+                            String result = operation.deleteRecord(initialKey(i), txtFile, indexFile);
+                            assertTrue(result.startsWith("delete succeeded"), result);
+                        }
+                    }));
+                    futures.add(pool.submit(() -> {
+                        for (int i = 2 * thread + 1; i < INITIAL_KEYS; i += 2) {
+                            String result = operation.findRecordByKey(initialKey(i), indexFile, txtFile);
+                            assertTrue(result.endsWith(initialKey(i) + " initial"), result);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures)
+                    future.get();
+            } finally {
+                pool.shutdown();
+            }
+
+            long expected = INITIAL_KEYS / 2;
+            for (int t = 0; t < THREADS; t++) {
+                for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                    String result = operation.findRecordByKey(threadKey(i, t), indexFile, txtFile);
+                    if (i % 3 == 0) {
+                        assertEquals("key not found", result);
+                    } else {
+                        assertTrue(result.endsWith(threadKey(i, t) + " value"), result);
+                        expected++;
+                    }
+                }
+            }
+            for (int i = 0; i < INITIAL_KEYS; i++) {
+                String result = operation.findRecordByKey(initialKey(i), indexFile, txtFile);
+                if (i % 2 == 0)
+                    assertEquals("key not found", result);
+                else
+                    assertTrue(result.endsWith(initialKey(i) + " initial"), result);
+            }
+            assertEquals(expected, operation.getTreeStatistics().getKeyCount());
+            assertTrue(operation.getMetrics().getSplitCount() > 0 && operation.getMetrics().getMergeCount() > 0,
+                    "leaves were split and merged while other threads used them");
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.jeffin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of delete through IndexOperation: underfull nodes borrow from or merge with a sibling,
+ *        blocks of merged nodes go onto the free list and are taken again by later splits
+ */
+public class DeleteTest {
+    private static final int PAGE_SIZE = 1024;
+    private static final int KEY_SIZE = 16;
+    private static final int KEYS = 3000;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * @return file name in the temporary directory, relative to user.dir
+     */
+    private String fileName(String name) {
+        return Paths.get(System.getProperty("user.dir")).toAbsolutePath().relativize(dir.resolve(name).toAbsolutePath()).toString();
+    }
+
+    private static String key(String prefix, int i) {
+        return String.format("%s%06d", prefix, i);
+    }
+
+    /**
+     * deleting most keys merges leaves and shrinks the tree, inserting afterwards reuses the freed blocks
+     * instead of growing the file, and every key stays where the operations left it
+     */
+    @Test
+    public void mergeAndReuseFreedBlocks() throws IOException {
+        String txtFile = fileName("data.txt");
+        String indexFile = fileName("data.idx");
+        Path indexPath = dir.resolve("data.idx");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < KEYS; i++)
+            sb.append(key("b", i)).append(" value\n");
+        Files.write(dir.resolve("data.txt"), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            operation.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, PAGE_SIZE);
+            TreeStatistics before = operation.getTreeStatistics();
+
+            // every leaf loses most of its keys, but keeps a few, so some leaves borrow and most merge
+            for (int i = 0; i < KEYS; i++) {
+                if (i % 10 != 0) {
+                    String result = operation.deleteRecord(key("b", i), txtFile, indexFile);
+                    assertTrue(result.startsWith("delete succeeded"), result);
+                }
+            }
+            operation.flush();
+            TreeStatistics afterDelete = operation.getTreeStatistics();
+            long sizeAfterDelete = Files.size(indexPath);
+            assertTrue(operation.getMetrics().getMergeCount() > 0);
+            assertEquals(KEYS / 10, afterDelete.getKeyCount());
+            assertTrue(afterDelete.getLeafCount() < before.getLeafCount() / 2,
+                    "leaves before " + before.getLeafCount() + ", after " + afterDelete.getLeafCount());
+
+            // fewer blocks than the merges freed, so the file doesn't grow
+            for (int i = 0; i < KEYS / 6; i++) {
+                String result = operation.insertNewRecord(key("c", i), "value", txtFile, indexFile);
+                assertTrue(result.startsWith("insert succeeded"), result);
+            }
+            operation.flush();
+            assertTrue(operation.getMetrics().getSplitCount() > 0);
+            assertEquals(sizeAfterDelete, Files.size(indexPath));
+
+            for (int i = 0; i < KEYS; i++) {
+                String result = operation.findRecordByKey(key("b", i), indexFile, txtFile);
+                if (i % 10 == 0)
+                    assertTrue(result.endsWith(key("b", i) + " value"), result);
+                else
+                    assertEquals("key not found", result);
+            }
+            for (int i = 0; i < KEYS / 6; i++) {
+                String result = operation.findRecordByKey(key("c", i), indexFile, txtFile);
+                assertTrue(result.endsWith(key("c", i) + " value"), result);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.jeffin;
+
+import com.jeffin.storage.WriteAheadLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of batch inserts through IndexOperation.insertNewRecords
+ */
+public class InsertAllTest {
+    private static final int PAGE_SIZE = 1024;
+    private static final int KEY_SIZE = 16;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * @return file name in the temporary directory, relative to user.dir
+     */
+    private String fileName(String name) {
+        return Paths.get(System.getProperty("user.dir")).toAbsolutePath().relativize(dir.resolve(name).toAbsolutePath()).toString();
+    }
+
+    private static List<String> keys(int from, int to) {
+        List<String> keys = new ArrayList<>();
+        for (int i = from; i < to; i++)
+            keys.add(String.format("k%06d", i));
+        return keys;
+    }
+
+    private static List<String> values(List<String> keys) {
+        List<String> values = new ArrayList<>();
+        for (String key : keys)
+            values.add("value of " + key);
+        return values;
+    }
+
+    private void assertFound(IndexOperation operation, List<String> keys, String txtFile, String indexFile) {
+        for (String key : keys) {
+            String result = operation.findRecordByKey(key, indexFile, txtFile);
+            assertTrue(result.endsWith(key + " value of " + key), result);
+        }
+    }
+
+    /**
+     * a sorted batch fills leaves in key order and splits them, an unsorted one lands in leaves all over the tree,
+     * keys already indexed and repeated keys of a batch are skipped and only the first of them is written
+     */
+    @Test
+    public void sortedUnsortedAndDuplicateBatches() throws IOException {
+        String txtFile = fileName("data.txt");
+        String indexFile = fileName("data.idx");
+        Files.write(dir.resolve("data.txt"), "0 first".getBytes(StandardCharsets.UTF_8));
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            operation.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, PAGE_SIZE);
+
+            List<String> sorted = keys(0, 1000);
+            List<InsertResult> results = operation.insertNewRecords(sorted, values(sorted), txtFile, indexFile);
+            assertEquals(Collections.nCopies(sorted.size(), InsertResult.INSERTED), results);
+
+            List<String> unsorted = keys(1000, 2000);
+            Collections.shuffle(unsorted, new Random(42));
+            results = operation.insertNewRecords(unsorted, values(unsorted), txtFile, indexFile);
+            assertEquals(Collections.nCopies(unsorted.size(), InsertResult.INSERTED), results);
+
+            // indexed before, new, repeated within the batch
+            List<String> mixed = Arrays.asList("k000010", "k005000", "k001500", "k005000", "k004000");
+            List<String> values = Arrays.asList("x", "value of k005000", "x", "second", "value of k004000");
+            results = operation.insertNewRecords(mixed, values, txtFile, indexFile);
+            assertEquals(Arrays.asList(InsertResult.DUPLICATE, InsertResult.INSERTED, InsertResult.DUPLICATE,
+                    InsertResult.DUPLICATE, InsertResult.INSERTED), results);
+
+            assertFound(operation, sorted, txtFile, indexFile);
+            assertFound(operation, unsorted, txtFile, indexFile);
+            assertFound(operation, Arrays.asList("k000010", "k005000", "k001500", "k004000"), txtFile, indexFile);
+        }
+    }
+
+    /**
+     * every pair of a batch is logged, so a batch committed before a crash is redone by recovery
+     */
+    @Test
+    public void batchIsRecovered() throws IOException {
+        String txtFile = fileName("data.txt");
+        String indexFile = fileName("data.idx");
+        Path indexPath = dir.resolve("data.idx");
+        Path logPath = dir.resolve("data.idx" + WriteAheadLog.SUFFIX);
+        Files.write(dir.resolve("data.txt"), "0 first".getBytes(StandardCharsets.UTF_8));
+        List<String> keys = keys(0, 500);
+        Collections.reverse(keys);
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            operation.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, PAGE_SIZE);
+            operation.setDirtyPageThreshold(Integer.MAX_VALUE);
+            operation.insertNewRecords(keys, values(keys), txtFile, indexFile);
+            Files.copy(indexPath, dir.resolve("crash.idx"));
+            Files.copy(logPath, dir.resolve("crash.wal"));
+        }
+        Files.copy(dir.resolve("crash.idx"), indexPath, StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(dir.resolve("crash.wal"), logPath, StandardCopyOption.REPLACE_EXISTING);
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            assertFound(operation, keys, txtFile, indexFile);
+        }
+    }
+}
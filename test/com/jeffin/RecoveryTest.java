@@ -0,0 +1,84 @@
+package com.jeffin;
+
+import com.jeffin.storage.WriteAheadLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of crash recovery through IndexOperation. a crash is simulated by saving the index file and its log
+ *        while the index is open and putting them back after it was closed, the txt file keeps what was written
+ */
+public class RecoveryTest {
+    private static final int PAGE_SIZE = 1024;
+    private static final int KEY_SIZE = 16;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * @return file name in the temporary directory, relative to user.dir
+     */
+    private String fileName(String name) {
+        return Paths.get(System.getProperty("user.dir")).toAbsolutePath().relativize(dir.resolve(name).toAbsolutePath()).toString();
+    }
+
+    private static String key(int i) {
+        return String.format("k%06d", (i * 7919) % 100000); // scattered over the leaves
+    }
+
+    /**
+     * a log dirtying many more blocks than the dirty page threshold is replayed as a whole and checkpointed once,
+     * no flush in the middle of the replay writes blocks and empties the log
+     */
+    @Test
+    public void recoverLogLargerThanDirtyPageThreshold() throws IOException {
+        String txtFile = fileName("data.txt");
+        String indexFile = fileName("data.idx");
+        Path indexPath = dir.resolve("data.idx");
+        Path logPath = dir.resolve("data.idx" + WriteAheadLog.SUFFIX);
+        Files.write(dir.resolve("data.txt"), "0 first".getBytes(StandardCharsets.UTF_8));
+        int count = 2000;
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            operation.createIndexFile(txtFile, indexFile, IndexOperation.DEFAULT_FILL_FACTOR, IndexOperation.DEFAULT_SORT_MEMORY, PAGE_SIZE);
+            operation.setDirtyPageThreshold(Integer.MAX_VALUE); // nothing is checkpointed before the crash
+            for (int i = 0; i < count; i++) {
+                String result = operation.insertNewRecord(key(i), "value", txtFile, indexFile);
+                assertTrue(result.startsWith("insert succeeded"), result);
+            }
+            // crash: the index file is still the one written at creation, the log holds every insert
+            Files.copy(indexPath, dir.resolve("crash.idx"));
+            Files.copy(logPath, dir.resolve("crash.wal"));
+        }
+        Files.copy(dir.resolve("crash.idx"), indexPath, StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(dir.resolve("crash.wal"), logPath, StandardCopyOption.REPLACE_EXISTING);
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            operation.setDirtyPageThreshold(2);
+            operation.open(indexFile);
+            long blocks = Files.size(indexPath) / PAGE_SIZE;
+            assertTrue(operation.getMetrics().getBlockWriteCount() <= blocks,
+                    "every block is written once by the final checkpoint: " + operation.getMetrics().getBlockWriteCount() + " writes, " + blocks + " blocks");
+            assertEquals(0L, Files.size(logPath));
+        }
+
+        try (IndexOperation operation = new IndexOperation(KEY_SIZE)) {
+            for (int i = 0; i < count; i++) {
+                String result = operation.findRecordByKey(key(i), indexFile, txtFile);
+                assertTrue(result.endsWith(key(i) + " value"), result);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.jeffin.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of the buffer pool on its own, pages are loaded by a loader which records every address it reads
+ */
+public class BufferPoolTest {
+    private static final int PAGE_SIZE = 1024;
+
+    private final List<Long> loads = new ArrayList<>();
+    private final BufferPool.PageLoader loader = (pageAddr, page) -> {
+        loads.add(pageAddr);
+        page.putLong(0, pageAddr); // every page starts with its own address
+    };
+
+    private static long addr(int block) {
+        return (long) block * PAGE_SIZE;
+    }
+
+    /**
+     * pin and unpin a page at once
+     * @return the page
+     */
+    private BufferPool.Page touch(BufferPool pool, int block) {
+        BufferPool.Page page = pool.pin(addr(block), loader);
+        pool.unpin(page);
+        return page;
+    }
+
+    /**
+     * the least recently used unpinned page is evicted, a hit moves a page to the back
+     */
+    @Test
+    public void lruEvictsLeastRecentlyUsed() {
+        BufferPool pool = new BufferPool(3 * PAGE_SIZE, PAGE_SIZE, EvictionPolicy.LRU);
+        touch(pool, 0);
+        touch(pool, 1);
+        touch(pool, 2);
+        touch(pool, 0);  // hit, block 1 is the least recently used now
+        touch(pool, 3);  // evicts block 1
+        touch(pool, 0);  // still cached
+        touch(pool, 1);  // loaded again, evicts block 2
+
+        assertEquals(2, pool.getHitCount());
+        assertEquals(5, pool.getMissCount());
+        assertEquals(2, pool.getEvictionCount());
+        assertEquals(3, pool.getCachedPageCount());
+        assertEquals(addr(1), (long) loads.get(loads.size() - 1));
+    }
+
+    /**
+     * a hit sets the reference bit of a page, the sweep passes over it once before it can be evicted
+     */
+    @Test
+    public void clockGivesReferencedPageSecondChance() {
+        BufferPool pool = new BufferPool(3 * PAGE_SIZE, PAGE_SIZE, EvictionPolicy.CLOCK);
+        touch(pool, 0);
+        touch(pool, 1);
+        touch(pool, 2);
+        touch(pool, 3);  // the sweep clears every reference bit and evicts block 0
+        touch(pool, 1);  // hit, sets the reference bit of block 1 again
+        touch(pool, 4);  // the sweep passes block 1 and evicts block 2
+
+        loads.clear();
+        touch(pool, 1);
+        touch(pool, 3);
+        touch(pool, 4);
+        assertEquals(0, loads.size());
+        touch(pool, 2);
+        assertEquals(1, loads.size());
+    }
+
+    /**
+     * a pinned page is never evicted and keeps its content, with every frame pinned an extra page outside the frames
+     * serves the pin and is dropped when it is unpinned
+     */
+    @Test
+    public void pinnedPageIsNotEvicted() {
+        BufferPool pool = new BufferPool(2 * PAGE_SIZE, PAGE_SIZE, EvictionPolicy.LRU);
+        BufferPool.Page pinned = pool.pin(addr(0), loader);
+        for (int block = 1; block < 10; block++)
+            touch(pool, block);
+        assertEquals(addr(0), pinned.getBuffer().getLong(0));
+        assertEquals(addr(0), pinned.getAddr());
+
+        BufferPool.Page other = pool.pin(addr(1), loader); // evicts block 9, the only unpinned frame
+        BufferPool.Page extra = pool.pin(addr(20), loader);
+        assertEquals(addr(20), extra.getBuffer().getLong(0));
+        assertEquals(3, pool.getCachedPageCount());
+        pool.unpin(extra);
+        assertEquals(2, pool.getCachedPageCount());
+
+        pool.unpin(other);
+        pool.unpin(pinned);
+        loads.clear();
+        touch(pool, 0);
+        assertEquals(0, loads.size());
+    }
+
+    /**
+     * dirty pages are written only by flush, in ascending address order and once however often they were put,
+     * a dirty page is never evicted, even when it has to be kept outside the frames
+     */
+    @Test
+    public void dirtyPagesWrittenBackOnFlush() {
+        BufferPool pool = new BufferPool(2 * PAGE_SIZE, PAGE_SIZE, EvictionPolicy.LRU);
+        for (int round = 0; round < 3; round++) {
+            for (int block : new int[]{5, 1, 3})
+                pool.putDirty(addr(block), page(block * 10 + round));
+        }
+        assertEquals(3, pool.getDirtyCount());
+        for (int block = 10; block < 20; block++)
+            touch(pool, block); // no frame is clean, every load gets an extra page
+        assertEquals(3, pool.getDirtyCount());
+
+        List<Long> written = new ArrayList<>();
+        List<Long> contents = new ArrayList<>();
+        int count = pool.flush((pageAddr, page) -> {
+            written.add(pageAddr);
+            contents.add(page.getLong(0));
+        });
+
+        assertEquals(3, count);
+        assertEquals(Arrays.asList(addr(1), addr(3), addr(5)), written);
+        assertEquals(Arrays.asList(12L, 32L, 52L), contents); // the last put of every page
+        assertEquals(0, pool.getDirtyCount());
+        assertEquals(0, pool.flush((pageAddr, page) -> written.add(pageAddr)));
+    }
+
+    /**
+     * @return page content starting with value
+     */
+    private static byte[] page(long value) {
+        byte[] data = new byte[PAGE_SIZE];
+        ByteBuffer.wrap(data).putLong(value);
+        return data;
+    }
+}
@@ -0,0 +1,159 @@
+package com.jeffin.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of the write-ahead log on its own, a log is written, closed and replayed by a second instance
+ */
+public class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * collects what replay passes on as "insert key", "delete key", "page addr value" with the first long of the image
+     * and "checkpoint root space free"
+     */
+    private static class Changes implements WriteAheadLog.Replayer {
+        final List<String> changes = new ArrayList<>();
+
+        @Override
+        public void page(long pageAddr, ByteBuffer page) {
+            changes.add("page " + pageAddr + " " + page.getLong(page.position()));
+        }
+
+        @Override
+        public void checkpointEnd(long rootAddr, long spaceOffset, long freeListHead) {
+            changes.add("checkpoint " + rootAddr + " " + spaceOffset + " " + freeListHead);
+        }
+
+        @Override
+        public void insert(WriteAheadLog.InsertRecord record) {
+            changes.add("insert " + new String(record.getKey(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void delete(WriteAheadLog.DeleteRecord record) {
+            changes.add("delete " + new String(record.getKey(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer image(long value) {
+        ByteBuffer page = ByteBuffer.allocate(1024);
+        page.putLong(0, value);
+        return page;
+    }
+
+    private List<String> replay(String indexFile) throws IOException {
+        Changes changes = new Changes();
+        try (WriteAheadLog log = new WriteAheadLog(indexFile)) {
+            log.replay(changes);
+        }
+        return changes.changes;
+    }
+
+    /**
+     * an abort cancels the change appended right before it, even when the change itself was made durable
+     */
+    @Test
+    public void abortCancelsLastChange() throws IOException {
+        String indexFile = dir.resolve("data.idx").toString();
+        String txtFile = dir.resolve("data.txt").toString();
+        try (WriteAheadLog log = new WriteAheadLog(indexFile)) {
+            log.commit(log.logInsert(txtFile, 0L, bytes("a 1"), bytes("a"), 0L));
+            log.commit(log.logInsert(txtFile, 4L, bytes("\nb 2"), bytes("b"), 5L)); // durable before its txt write fails
+            log.commit(log.logAbort());
+            log.commit(log.logDelete(txtFile, 0L, bytes("   "), bytes("a")));
+        }
+
+        List<String> expected = new ArrayList<>();
+        expected.add("insert a");
+        expected.add("delete a");
+        assertEquals(expected, replay(indexFile));
+    }
+
+    /**
+     * several aborts in a row cancel as many changes before them, the latest first
+     */
+    @Test
+    public void abortsCancelBatchInReverse() throws IOException {
+        String indexFile = dir.resolve("data.idx").toString();
+        String txtFile = dir.resolve("data.txt").toString();
+        try (WriteAheadLog log = new WriteAheadLog(indexFile)) {
+            log.logInsert(txtFile, 0L, bytes("a 1"), bytes("a"), 0L);
+            log.logInsert(txtFile, 3L, bytes("\nb 2"), bytes("b"), 4L);
+            log.logInsert(txtFile, 7L, bytes("\nc 3"), bytes("c"), 8L);
+            log.logAbort();
+            log.commit(log.logAbort());
+        }
+
+        assertEquals(Arrays.asList("insert a"), replay(indexFile));
+    }
+
+    /**
+     * the images of a complete checkpoint are passed on before its end record, changes logged before it are dropped
+     * since they are in its blocks, images of a checkpoint without end record are dropped since nothing of it was written
+     */
+    @Test
+    public void replayFromLastCompleteCheckpoint() throws IOException {
+        String indexFile = dir.resolve("data.idx").toString();
+        String txtFile = dir.resolve("data.txt").toString();
+        Files.write(dir.resolve("data.txt"), bytes("a 1")); // synced by the checkpoint
+        try (WriteAheadLog log = new WriteAheadLog(indexFile)) {
+            log.logInsert(txtFile, 0L, bytes("a 1"), bytes("a"), 0L);
+            log.logPage(1024L, image(11L));
+            log.logPage(2048L, image(22L));
+            log.logCheckpointEnd(1024L, 3072L, 0L);
+            log.logDelete(txtFile, 0L, bytes("   "), bytes("a"));
+            log.logPage(1024L, image(33L)); // a checkpoint which crashed before its end record
+            log.commit(log.logInsert(txtFile, 3L, bytes("\nb 2"), bytes("b"), 4L));
+        }
+
+        assertEquals(Arrays.asList("page 1024 11", "page 2048 22", "checkpoint 1024 3072 0", "delete a", "insert b"), replay(indexFile));
+    }
+
+    /**
+     * a record cut short by a crash and everything after a corrupt record are ignored, the records before them are replayed
+     */
+    @Test
+    public void replayStopsAtTornOrCorruptRecord() throws IOException {
+        String indexFile = dir.resolve("data.idx").toString();
+        String txtFile = dir.resolve("data.txt").toString();
+        Path logFile = dir.resolve("data.idx" + WriteAheadLog.SUFFIX);
+        long[] ends = new long[3];
+        try (WriteAheadLog log = new WriteAheadLog(indexFile)) {
+            ends[0] = log.logInsert(txtFile, 0L, bytes("a 1"), bytes("a"), 0L);
+            ends[1] = log.logInsert(txtFile, 3L, bytes("\nb 2"), bytes("b"), 4L);
+            ends[2] = log.logInsert(txtFile, 7L, bytes("\nc 3"), bytes("c"), 8L);
+            log.commit(ends[2]);
+        }
+        byte[] content = Files.readAllBytes(logFile);
+
+        // torn tail: the last record lost its checksum and part of its payload
+        Files.write(logFile, Arrays.copyOf(content, (int) ends[2] - 6));
+        assertEquals(Arrays.asList("insert a", "insert b"), replay(indexFile));
+
+        // a flipped byte in the payload of the second record fails its checksum, the third one is not read either
+        byte[] corrupt = content.clone();
+        corrupt[(int) ends[1] - 6] ^= 0x01;
+        Files.write(logFile, corrupt);
+        assertEquals(Arrays.asList("insert a"), replay(indexFile));
+    }
+}
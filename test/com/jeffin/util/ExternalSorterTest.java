@@ -0,0 +1,77 @@
+package com.jeffin.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Author: baojianfeng
+ * Date: 2026-10-17
+ * Usage: tests of the external sort with budgets small enough to spill many runs
+ */
+public class ExternalSorterTest {
+    private static final long SMALL_BUDGET = 4 * 1024; // a few dozen pairs per run, a merge of two runs at a time
+
+    @TempDir
+    Path dir;
+
+    private static byte[] key(int i) {
+        return String.format("%08d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * more runs than one merge takes are merged in several passes, the stream stays ascending
+     * and the pair added last wins on a duplicate key however many passes lie between the two pairs
+     */
+    @Test
+    public void multiPassMergeKeepsOrderAndLastPair() {
+        int count = 5000;
+        try (ExternalSorter sorter = new ExternalSorter(SMALL_BUDGET, dir.toFile())) {
+            for (int i = 0; i < count; i++)
+                sorter.add(key((i * 7919) % count), i); // every key once, in scattered order
+            for (int i = 0; i < count; i += 10)
+                sorter.add(key(i), -i);                 // added last, replaces the first pair of the key
+            sorter.finish();
+
+            Iterator<Map.Entry<byte[], Long>> it = sorter.iterator();
+            for (int i = 0; i < count; i++) {
+                Map.Entry<byte[], Long> entry = it.next();
+                assertArrayEquals(key(i), entry.getKey());
+                if (i % 10 == 0)
+                    assertEquals(-i, (long) entry.getValue());
+            }
+            assertFalse(it.hasNext());
+        }
+        assertEquals(0, runFiles().length);
+    }
+
+    /**
+     * closing the sorter while the merge is unfinished closes the runs still open and deletes every run file
+     */
+    @Test
+    public void closeAbandonedMerge() {
+        ExternalSorter sorter = new ExternalSorter(SMALL_BUDGET, dir.toFile());
+        for (int i = 1000; i > 0; i--)
+            sorter.add(key(i), i);
+        sorter.finish();
+        Iterator<Map.Entry<byte[], Long>> it = sorter.iterator();
+        assertArrayEquals(key(1), it.next().getKey());
+        sorter.close();
+
+        assertEquals(0, runFiles().length); // deleting an open run fails on some platforms, so the readers were closed first
+    }
+
+    private File[] runFiles() {
+        File[] files = dir.toFile().listFiles((d, name) -> name.endsWith(".run"));
+        return files == null ? new File[0] : files;
+    }
+}